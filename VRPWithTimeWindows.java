@@ -1,8 +1,68 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.IntBinaryOperator;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
 
 class Location {
     int x;
@@ -23,6 +83,10 @@ class Customer {
     int serving_time;
     Location location;
     boolean isVisited;
+    int index;
+    // Pickup-and-delivery: the other stop of the request and whether this one is the pickup
+    Customer pair;
+    boolean pickup;
 
     public Customer(int id, int demand, int earliest_arrival_time, int latest_arrival_time, int serving_time, Location location , boolean isVisited) {
         this.id = id;
@@ -33,13 +97,34 @@ class Customer {
         this.location = location;
         this.isVisited = isVisited;
     }
+
+    // Make this stop the pickup of a request that delivery must complete later on the same vehicle.
+    // The pickup loads its demand and the delivery unloads it, so the delivery's own demand is 0;
+    // that way the sum of demands on a route stays an upper bound on its load.
+    public void pairWith(Customer delivery) {
+        if (delivery.demand != 0) {
+            throw new IllegalArgumentException("Delivery " + delivery.id + " of a pickup-and-delivery pair must have demand 0");
+        }
+        this.pair = delivery;
+        this.pickup = true;
+        delivery.pair = this;
+        delivery.pickup = false;
+    }
 }
 
 
 class Vehicle {
     int capacity;
     Location depot;
+    int depotIndex;
     List<Customer> route;
+    // Driver rules, open unless set: the shift window, the longest route, and a break of
+    // breakDuration due after every breakAfter time units of driving and service (0 for none)
+    int shiftStart;
+    int shiftEnd = RouteSegments.OPEN;
+    int maxDuration = RouteSegments.OPEN;
+    int breakAfter;
+    int breakDuration;
 
 
     public Vehicle(int capacity, Location depot) {
@@ -49,8 +134,29 @@ class Vehicle {
     }
 
 
+    public void setShift(int shiftStart, int shiftEnd, int maxDuration) {
+        this.shiftStart = shiftStart;
+        this.shiftEnd = shiftEnd;
+        this.maxDuration = maxDuration;
+    }
+
+
+    public void setBreak(int breakAfter, int breakDuration) {
+        this.breakAfter = breakAfter;
+        this.breakDuration = breakDuration;
+    }
+
+
+    public boolean hasShiftLimits() {
+        return shiftStart != 0 || shiftEnd != RouteSegments.OPEN || maxDuration != RouteSegments.OPEN || breakAfter > 0;
+    }
+
+
     public boolean canAddCustomer(Customer customer) {
-        int totalDemand = route.stream().mapToInt(c -> c.demand).sum();
+        int totalDemand = 0;
+        for (int i = 0; i < route.size(); i++) {
+            totalDemand += route.get(i).demand;
+        }
         return totalDemand + customer.demand <= capacity;
     }
 
@@ -62,11 +168,64 @@ class Vehicle {
 
 class Solution {
     List<Vehicle> vehicles;
+    // Totals of the penalised search, carried from a solution to its neighbour by the move's
+    // deltas; only read while costsKnown, which whatever else changes the routes must clear
+    boolean costsKnown;
+    int distance;
+    int augmented;
+    int excess;
+    int warp;
+    int routes;
 
     public Solution(List<Vehicle> vehicles) {
         this.vehicles = vehicles;
     }
 
+    // Overwrite this solution with the routes of another one, reusing the existing vehicles and route lists
+    public void copyFrom(Solution other) {
+        costsKnown = other.costsKnown;
+        distance = other.distance;
+        augmented = other.augmented;
+        excess = other.excess;
+        warp = other.warp;
+        routes = other.routes;
+        while (vehicles.size() > other.vehicles.size()) {
+            vehicles.remove(vehicles.size() - 1);
+        }
+        for (int v = 0; v < other.vehicles.size(); v++) {
+            Vehicle source = other.vehicles.get(v);
+            if (v == vehicles.size()) {
+                vehicles.add(new Vehicle(source.capacity, source.depot));
+            }
+            Vehicle target = vehicles.get(v);
+            target.capacity = source.capacity;
+            target.depot = source.depot;
+            target.depotIndex = source.depotIndex;
+            target.shiftStart = source.shiftStart;
+            target.shiftEnd = source.shiftEnd;
+            target.maxDuration = source.maxDuration;
+            target.breakAfter = source.breakAfter;
+            target.breakDuration = source.breakDuration;
+            target.route.clear();
+            for (int i = 0; i < source.route.size(); i++) {
+                target.route.add(source.route.get(i));
+            }
+        }
+    }
+
+    // Routes and their depots, so moving a route to another depot is a different solution
+    public long signature() {
+        long hash = 1125899906842597L;
+        for (int v = 0; v < vehicles.size(); v++) {
+            List<Customer> route = vehicles.get(v).route;
+            for (int i = 0; i < route.size(); i++) {
+                hash = 31 * hash + route.get(i).id;
+            }
+            hash = 31 * hash - 1 - vehicles.get(v).depotIndex;
+        }
+        return hash;
+    }
+
     public int getTotalDistance() {
         int totalDistance = 0;
 
@@ -90,129 +249,3933 @@ class Solution {
         int dy = location1.y - location2.y;
         return (int) Math.sqrt(dx * dx + dy * dy);
     }
-}
+}
+
+// Travel costs between locations read from a binary file. The file starts with a little-endian
+// header (magic, version, layout, size). Dense layouts follow with a row-major int32 or float32
+// matrix that is memory-mapped off-heap; the sparse layout is gzip-compressed and holds only the
+// known arcs as CSR (row offsets, columns, values). Missing arcs read as MISSING.
+class MatrixFile {
+    static final int MAGIC = 0x5652504D;
+    static final int VERSION = 1;
+    static final int DENSE_INT = 0;
+    static final int DENSE_FLOAT = 1;
+    static final int SPARSE_INT = 2;
+    static final int HEADER_BYTES = 16;
+    static final int MISSING = -1;
+
+    private final int size;
+    private final int layout;
+    private final ByteBuffer[] chunks;
+    private final int rowsPerChunk;
+    private final int[] offsets;
+    private final int[] columns;
+    private final int[] values;
+
+    private MatrixFile(int size, int layout, ByteBuffer[] chunks, int rowsPerChunk, int[] offsets, int[] columns, int[] values) {
+        this.size = size;
+        this.layout = layout;
+        this.chunks = chunks;
+        this.rowsPerChunk = rowsPerChunk;
+        this.offsets = offsets;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    public static MatrixFile open(Path path) throws IOException {
+        try (InputStream probe = Files.newInputStream(path)) {
+            if (probe.read() == 0x1f && probe.read() == 0x8b) {
+                return readSparse(path);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            int size = checkHeader(header);
+            int layout = header.getInt(8);
+            if (layout != DENSE_INT && layout != DENSE_FLOAT) {
+                throw new IOException("Unsupported dense matrix layout " + layout + " in " + path);
+            }
+            return mapDense(channel, HEADER_BYTES, size, layout);
+        }
+    }
+
+    // Map a headerless dense matrix that starts at offset, e.g. one embedded in an InstanceFile
+    static MatrixFile mapDense(FileChannel channel, long offset, int size, int layout) throws IOException {
+        // A single mapping is limited to 2 GB, so large matrices are mapped in row chunks
+        long rowBytes = 4L * size;
+        int rowsPerChunk = (int) Math.max(1, Math.min(size, Integer.MAX_VALUE / Math.max(1, rowBytes)));
+        ByteBuffer[] chunks = new ByteBuffer[(size + rowsPerChunk - 1) / rowsPerChunk];
+        for (int c = 0; c < chunks.length; c++) {
+            long firstRow = (long) c * rowsPerChunk;
+            long rows = Math.min(rowsPerChunk, size - firstRow);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset + firstRow * rowBytes, rows * rowBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new MatrixFile(size, layout, chunks, rowsPerChunk, null, null, null);
+    }
+
+    private static MatrixFile readSparse(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            ByteBuffer header = ByteBuffer.wrap(in.readNBytes(HEADER_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+            int size = checkHeader(header);
+            if (header.getInt(8) != SPARSE_INT) {
+                throw new IOException("Compressed matrix " + path + " is not in the sparse layout");
+            }
+            int[] offsets = readInts(in, size + 1);
+            int[] columns = readInts(in, offsets[size]);
+            int[] values = readInts(in, offsets[size]);
+            return new MatrixFile(size, SPARSE_INT, null, 0, offsets, columns, values);
+        }
+    }
+
+    // Validate magic and version and return the matrix size
+    private static int checkHeader(ByteBuffer header) throws IOException {
+        if (header.limit() < HEADER_BYTES || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " matrix file");
+        }
+        return header.getInt(12);
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        byte[] bytes = in.readNBytes(4 * count);
+        if (bytes.length != 4 * count) {
+            throw new IOException("Truncated sparse matrix");
+        }
+        int[] ints = new int[count];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(ints);
+        return ints;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int from, int to) {
+        if (layout == SPARSE_INT) {
+            int found = Arrays.binarySearch(columns, offsets[from], offsets[from + 1], to);
+            return found >= 0 ? values[found] : MISSING;
+        }
+        ByteBuffer chunk = chunks[from / rowsPerChunk];
+        int position = ((from % rowsPerChunk) * size + to) * 4;
+        return layout == DENSE_INT ? chunk.getInt(position) : (int) chunk.getFloat(position);
+    }
+
+    public static void writeDense(Path path, int size, IntBinaryOperator cost, boolean floats) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            out.write(header(floats ? DENSE_FLOAT : DENSE_INT, size));
+            writeRows(out, size, cost, floats);
+        }
+    }
+
+    static void writeRows(OutputStream out, int size, IntBinaryOperator cost, boolean floats) throws IOException {
+        ByteBuffer row = ByteBuffer.allocate(4 * size).order(ByteOrder.LITTLE_ENDIAN);
+        for (int from = 0; from < size; from++) {
+            row.clear();
+            for (int to = 0; to < size; to++) {
+                if (floats) {
+                    row.putFloat(cost.applyAsInt(from, to));
+                } else {
+                    row.putInt(cost.applyAsInt(from, to));
+                }
+            }
+            out.write(row.array());
+        }
+    }
+
+    // offsets has size + 1 entries and the columns of every row must be sorted
+    public static void writeSparse(Path path, int size, int[] offsets, int[] columns, int[] values) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.write(header(SPARSE_INT, size));
+            for (int[] block : new int[][] { offsets, columns, values }) {
+                ByteBuffer bytes = ByteBuffer.allocate(4 * block.length).order(ByteOrder.LITTLE_ENDIAN);
+                bytes.asIntBuffer().put(block);
+                out.write(bytes.array());
+            }
+        }
+    }
+
+    private static byte[] header(int layout, int size) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(layout).putInt(size);
+        return header.array();
+    }
+}
+
+// A road network given as matrix files, possibly asymmetric and with separate travel times.
+// Rows 0..d-1 are the depots in the given order and customer rows follow by id (row d - 1 + id),
+// the usual Solomon / Cordeau numbering.
+class RoadNetwork {
+    final MatrixFile distances;
+    final MatrixFile travelTimes;
+    final List<Location> depots;
+
+    public RoadNetwork(MatrixFile distances, MatrixFile travelTimes, List<Location> depots) {
+        this.distances = distances;
+        this.travelTimes = travelTimes != null ? travelTimes : distances;
+        this.depots = depots;
+    }
+
+    // File row of every solver location index
+    int[] rows(List<Customer> customers, List<Location> solverDepots) {
+        int[] rows = new int[customers.size() + solverDepots.size()];
+        for (int i = 0; i < customers.size(); i++) {
+            rows[i] = depots.size() - 1 + customers.get(i).id;
+        }
+        for (int k = 0; k < solverDepots.size(); k++) {
+            Location depot = solverDepots.get(k);
+            rows[customers.size() + k] = -1;
+            for (int d = 0; d < depots.size(); d++) {
+                if (depots.get(d).x == depot.x && depots.get(d).y == depot.y) {
+                    rows[customers.size() + k] = d;
+                }
+            }
+        }
+        for (int row : rows) {
+            if (row < 0 || row >= distances.size() || row >= travelTimes.size()) {
+                throw new IllegalArgumentException("Location has no row in the road network matrix: " + row);
+            }
+        }
+        return rows;
+    }
+}
+
+// Versioned binary instances and solutions, little endian and memory-mapped on read.
+// Instance: header (magic, version, customers, vehicles, matrix size), one int32 column per customer
+// field (id, demand, earliest, latest, service, x, y, delivery), one per vehicle field (capacity,
+// depot x, depot y) and, if the matrix size is not 0, a dense int32 matrix in the RoadNetwork row
+// layout (distinct depots in vehicle order, then customers by id). The delivery column, new in
+// version 2, holds for a pickup the position of its delivery in the customer columns and -1 for
+// every other customer; version 1 files have no pairs and are still read.
+// Solution: header (magic, version, routes, stops), routes + 1 route offsets, then the customer
+// indices of all routes back to back.
+class InstanceFile {
+    static final int INSTANCE_MAGIC = 0x56525049;
+    static final int SOLUTION_MAGIC = 0x56525053;
+    static final int VERSION = 2;
+    static final int SOLUTION_VERSION = 1;
+    static final int INSTANCE_HEADER_BYTES = 20;
+    static final int SOLUTION_HEADER_BYTES = 16;
+    static final int CUSTOMER_COLUMNS = 8;
+    static final int VEHICLE_COLUMNS = 3;
+    static final int NO_DELIVERY = -1;
+
+    // Column views straight into the mapping, nothing is copied until customers() or vehicles()
+    final int customerCount;
+    final int vehicleCount;
+    final IntBuffer ids;
+    final IntBuffer demands;
+    final IntBuffer earliest;
+    final IntBuffer latest;
+    final IntBuffer service;
+    final IntBuffer xs;
+    final IntBuffer ys;
+    // null in version 1 files
+    final IntBuffer deliveries;
+    final IntBuffer capacities;
+    final IntBuffer depotXs;
+    final IntBuffer depotYs;
+    final MatrixFile matrix;
+
+    private InstanceFile(ByteBuffer mapped, int customerColumns, int customerCount, int vehicleCount, MatrixFile matrix) {
+        this.customerCount = customerCount;
+        this.vehicleCount = vehicleCount;
+        int position = INSTANCE_HEADER_BYTES;
+        IntBuffer[] columns = new IntBuffer[customerColumns + VEHICLE_COLUMNS];
+        for (int c = 0; c < columns.length; c++) {
+            int count = c < customerColumns ? customerCount : vehicleCount;
+            columns[c] = mapped.slice(position, 4 * count).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            position += 4 * count;
+        }
+        this.ids = columns[0];
+        this.demands = columns[1];
+        this.earliest = columns[2];
+        this.latest = columns[3];
+        this.service = columns[4];
+        this.xs = columns[5];
+        this.ys = columns[6];
+        this.deliveries = customerColumns == CUSTOMER_COLUMNS ? columns[7] : null;
+        this.capacities = columns[customerColumns];
+        this.depotXs = columns[customerColumns + 1];
+        this.depotYs = columns[customerColumns + 2];
+        this.matrix = matrix;
+    }
+
+    public static InstanceFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < INSTANCE_HEADER_BYTES) {
+                throw new IOException("Not an instance file, " + channel.size() + " bytes is shorter than the "
+                        + INSTANCE_HEADER_BYTES + "-byte header: " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, INSTANCE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            int version = header.getInt(4);
+            if (header.getInt(0) != INSTANCE_MAGIC || version < 1 || version > VERSION) {
+                throw new IOException("Not a version 1 to " + VERSION + " instance file: " + path);
+            }
+            // Version 1 has no delivery column
+            int customerColumns = version == 1 ? CUSTOMER_COLUMNS - 1 : CUSTOMER_COLUMNS;
+            int customerCount = header.getInt(8);
+            int vehicleCount = header.getInt(12);
+            int matrixSize = header.getInt(16);
+            if (customerCount < 0 || vehicleCount < 0 || matrixSize < 0) {
+                throw new IOException("Corrupt instance file, negative count in the header: " + path);
+            }
+            long columnBytes = 4L * customerColumns * customerCount + 4L * VEHICLE_COLUMNS * vehicleCount;
+            if (channel.size() < INSTANCE_HEADER_BYTES + columnBytes + 4L * matrixSize * matrixSize) {
+                throw new IOException("Truncated instance file: " + path);
+            }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, INSTANCE_HEADER_BYTES + columnBytes);
+            MatrixFile matrix = matrixSize > 0
+                    ? MatrixFile.mapDense(channel, INSTANCE_HEADER_BYTES + columnBytes, matrixSize, MatrixFile.DENSE_INT) : null;
+            InstanceFile file = new InstanceFile(mapped, customerColumns, customerCount, vehicleCount, matrix);
+            // Every delivery belongs to exactly one pickup and is not a pickup itself
+            boolean[] delivered = new boolean[file.deliveries != null ? customerCount : 0];
+            for (int i = 0; i < delivered.length; i++) {
+                int delivery = file.deliveries.get(i);
+                if (delivery == NO_DELIVERY) {
+                    continue;
+                }
+                if (delivery < 0 || delivery >= customerCount || delivered[delivery] || file.deliveries.get(delivery) != NO_DELIVERY) {
+                    throw new IOException("Corrupt instance file, customer " + i + " has delivery " + delivery + ": " + path);
+                }
+                delivered[delivery] = true;
+            }
+            return file;
+        }
+    }
+
+    public List<Customer> customers() {
+        List<Customer> customers = new ArrayList<>(customerCount);
+        for (int i = 0; i < customerCount; i++) {
+            customers.add(new Customer(ids.get(i), demands.get(i), earliest.get(i), latest.get(i), service.get(i),
+                    new Location(xs.get(i), ys.get(i)), false));
+        }
+        for (int i = 0; deliveries != null && i < customerCount; i++) {
+            if (deliveries.get(i) != NO_DELIVERY) {
+                customers.get(i).pairWith(customers.get(deliveries.get(i)));
+            }
+        }
+        return customers;
+    }
+
+    public List<Vehicle> vehicles() {
+        List<Vehicle> vehicles = new ArrayList<>(vehicleCount);
+        for (int v = 0; v < vehicleCount; v++) {
+            vehicles.add(new Vehicle(capacities.get(v), new Location(depotXs.get(v), depotYs.get(v))));
+        }
+        return vehicles;
+    }
+
+    // Road network over the embedded matrix, or null to fall back to straight-line distances
+    public RoadNetwork network() {
+        if (matrix == null) {
+            return null;
+        }
+        List<Location> depots = new ArrayList<>();
+        for (Vehicle vehicle : vehicles()) {
+            if (depots.stream().noneMatch(d -> d.x == vehicle.depot.x && d.y == vehicle.depot.y)) {
+                depots.add(vehicle.depot);
+            }
+        }
+        return new RoadNetwork(matrix, null, depots);
+    }
+
+    // matrix may be null; otherwise it must already be in the RoadNetwork row layout
+    public static void write(Path path, List<Customer> customers, List<Vehicle> vehicles, MatrixFile matrix) throws IOException {
+        int matrixSize = matrix != null ? matrix.size() : 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            ByteBuffer header = ByteBuffer.allocate(INSTANCE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(INSTANCE_MAGIC).putInt(VERSION).putInt(customers.size()).putInt(vehicles.size()).putInt(matrixSize);
+            out.write(header.array());
+            Map<Customer, Integer> positions = new IdentityHashMap<>();
+            for (int i = 0; i < customers.size(); i++) {
+                positions.put(customers.get(i), i);
+            }
+            for (Customer customer : customers) {
+                if (customer.pair != null && !positions.containsKey(customer.pair)) {
+                    throw new IllegalArgumentException("Customer " + customer.id + " is paired with a customer not in the list");
+                }
+            }
+            List<ToIntFunction<Customer>> customerColumns = List.of(c -> c.id, c -> c.demand, c -> c.earliest_arrival_time,
+                    c -> c.latest_arrival_time, c -> c.serving_time, c -> c.location.x, c -> c.location.y,
+                    c -> c.pair != null && c.pickup ? positions.get(c.pair) : NO_DELIVERY);
+            for (ToIntFunction<Customer> column : customerColumns) {
+                writeColumn(out, customers, column);
+            }
+            List<ToIntFunction<Vehicle>> vehicleColumns = List.of(v -> v.capacity, v -> v.depot.x, v -> v.depot.y);
+            for (ToIntFunction<Vehicle> column : vehicleColumns) {
+                writeColumn(out, vehicles, column);
+            }
+            if (matrix != null) {
+                MatrixFile.writeRows(out, matrixSize, matrix::get, false);
+            }
+        }
+    }
+
+    private static <T> void writeColumn(OutputStream out, List<T> items, ToIntFunction<T> field) throws IOException {
+        ByteBuffer column = ByteBuffer.allocate(4 * items.size()).order(ByteOrder.LITTLE_ENDIAN);
+        for (T item : items) {
+            column.putInt(field.applyAsInt(item));
+        }
+        out.write(column.array());
+    }
+
+    // Routes are stored as indices into the customer list the solution was built from
+    public static void writeSolution(Path path, Solution solution, List<Customer> customers) throws IOException {
+        Map<Customer, Integer> indices = new IdentityHashMap<>();
+        for (int i = 0; i < customers.size(); i++) {
+            indices.put(customers.get(i), i);
+        }
+        int stops = 0;
+        for (Vehicle vehicle : solution.vehicles) {
+            stops += vehicle.route.size();
+        }
+        int routes = solution.vehicles.size();
+        ByteBuffer bytes = ByteBuffer.allocate(SOLUTION_HEADER_BYTES + 4 * (routes + 1 + stops)).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(SOLUTION_MAGIC).putInt(SOLUTION_VERSION).putInt(routes).putInt(stops);
+        int offset = 0;
+        for (Vehicle vehicle : solution.vehicles) {
+            bytes.putInt(offset);
+            offset += vehicle.route.size();
+        }
+        bytes.putInt(offset);
+        for (Vehicle vehicle : solution.vehicles) {
+            for (Customer customer : vehicle.route) {
+                Integer index = indices.get(customer);
+                if (index == null) {
+                    throw new IllegalArgumentException("Customer " + customer.id + " is not in the customer list");
+                }
+                bytes.putInt(index);
+            }
+        }
+        Files.write(path, bytes.array());
+    }
+
+    // Fill the routes of vehicles (one per stored route, in order) from a solution file
+    public static Solution readSolution(Path path, List<Customer> customers, List<Vehicle> vehicles) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            if (ints.limit() < SOLUTION_HEADER_BYTES / 4 || ints.get(0) != SOLUTION_MAGIC || ints.get(1) != SOLUTION_VERSION) {
+                throw new IOException("Not a version " + SOLUTION_VERSION + " solution file: " + path);
+            }
+            int routes = ints.get(2);
+            int stops = ints.get(3);
+            if (routes != vehicles.size()) {
+                throw new IllegalArgumentException("Solution has " + routes + " routes for " + vehicles.size() + " vehicles");
+            }
+            if (stops < 0 || ints.limit() < 4 + routes + 1 + stops) {
+                throw new IOException("Truncated solution file: " + path);
+            }
+            int first = 4 + routes + 1;
+            for (int r = 0; r <= routes; r++) {
+                int offset = ints.get(4 + r);
+                if (offset < (r > 0 ? ints.get(3 + r) : 0) || offset > stops) {
+                    throw new IOException("Corrupt solution file, route offset " + offset + " out of order: " + path);
+                }
+            }
+            for (int i = 0; i < stops; i++) {
+                int index = ints.get(first + i);
+                if (index < 0 || index >= customers.size()) {
+                    throw new IllegalArgumentException("Solution visits customer index " + index + " of an instance with "
+                            + customers.size() + " customers");
+                }
+            }
+            for (int r = 0; r < routes; r++) {
+                List<Customer> route = vehicles.get(r).route;
+                route.clear();
+                for (int i = ints.get(4 + r); i < ints.get(5 + r); i++) {
+                    route.add(customers.get(ints.get(first + i)));
+                }
+            }
+            return new Solution(vehicles);
+        }
+    }
+}
+
+// Arrival time as a function of departure time: piecewise linear through the breakpoints and
+// continued with slope 1 outside them. Functions are non-decreasing (FIFO), so they can be
+// inverted by search.
+class ArrivalFunction {
+    final double[] xs;
+    final double[] ys;
+
+    ArrivalFunction(double[] xs, double[] ys) {
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    public double at(double t) {
+        int last = xs.length - 1;
+        if (t <= xs[0]) {
+            return ys[0] + (t - xs[0]);
+        }
+        if (t >= xs[last]) {
+            return ys[last] + (t - xs[last]);
+        }
+        int k = Arrays.binarySearch(xs, t);
+        if (k >= 0) {
+            return ys[k];
+        }
+        k = -k - 2;
+        return ys[k] + (t - xs[k]) * (ys[k + 1] - ys[k]) / (xs[k + 1] - xs[k]);
+    }
+
+    // Latest departure whose arrival is no later than y
+    public double latestBefore(double y) {
+        int last = xs.length - 1;
+        if (y >= ys[last]) {
+            return xs[last] + (y - ys[last]);
+        }
+        // First breakpoint arriving after y
+        int k = 0;
+        int high = last;
+        while (k < high) {
+            int middle = (k + high) >>> 1;
+            if (ys[middle] <= y) {
+                k = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (k == 0) {
+            return xs[0] + (y - ys[0]);
+        }
+        return xs[k - 1] + (y - ys[k - 1]) * (xs[k] - xs[k - 1]) / (ys[k] - ys[k - 1]);
+    }
+}
+
+// Speed over the day as factors of free-flow speed, constant within each period; periods start at
+// starts[k] and the first starts at 0. Travel follows Ichoua, Gendreau and Potvin: the free-flow
+// time of an arc is covered at the speed of whichever period the vehicle is in, which keeps FIFO.
+class SpeedProfile {
+    final int[] starts;
+    final double[] speeds;
+
+    public SpeedProfile(int[] starts, double[] speeds) {
+        this.starts = starts;
+        this.speeds = speeds;
+    }
+
+    public double arrival(double departure, int baseTime) {
+        double t = departure;
+        double remaining = baseTime;
+        int k = period(t);
+        while (remaining > 0) {
+            double end = k + 1 < starts.length ? starts[k + 1] : Double.POSITIVE_INFINITY;
+            double reach = (end - t) * speeds[k];
+            if (reach >= remaining) {
+                return t + remaining / speeds[k];
+            }
+            remaining -= reach;
+            t = end;
+            k++;
+        }
+        return t;
+    }
+
+    public double departure(double arrival, int baseTime) {
+        double t = arrival;
+        double remaining = baseTime;
+        int k = period(Math.nextDown(t));
+        while (remaining > 0) {
+            double start = k > 0 ? starts[k] : Double.NEGATIVE_INFINITY;
+            double reach = (t - start) * speeds[k];
+            if (reach >= remaining) {
+                return t - remaining / speeds[k];
+            }
+            remaining -= reach;
+            t = start;
+            k--;
+        }
+        return t;
+    }
+
+    private int period(double t) {
+        int k = 0;
+        while (k + 1 < starts.length && starts[k + 1] <= t) {
+            k++;
+        }
+        return k;
+    }
+
+    // Breakpoints are the period boundaries and the departures that arrive exactly on one
+    public ArrivalFunction arc(int baseTime) {
+        double[] candidates = new double[2 * starts.length + 1];
+        int count = 0;
+        candidates[count++] = 0;
+        for (int k = 1; k < starts.length; k++) {
+            candidates[count++] = starts[k];
+            double departure = departure(starts[k], baseTime);
+            if (departure > 0) {
+                candidates[count++] = departure;
+            }
+        }
+        Arrays.sort(candidates, 0, count);
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (size == 0 || candidates[i] > xs[size - 1]) {
+                xs[size] = candidates[i];
+                ys[size] = arrival(candidates[i], baseTime);
+                size++;
+            }
+        }
+        return new ArrivalFunction(Arrays.copyOf(xs, size), Arrays.copyOf(ys, size));
+    }
+}
+
+// Time-dependent travel: every location belongs to a zone and an arc is driven with the speed
+// profile of the zone it leaves. Arc functions only depend on (zone, free-flow time), so they are
+// built once per pair and shared.
+class TrafficModel {
+    private final SpeedProfile[] profiles;
+    private final ToIntFunction<Location> zoneOf;
+    private final Map<Long, ArrivalFunction> arcs = new ConcurrentHashMap<>();
+
+    public TrafficModel(SpeedProfile[] profiles, ToIntFunction<Location> zoneOf) {
+        this.profiles = profiles;
+        this.zoneOf = zoneOf;
+    }
+
+    public static TrafficModel uniform(SpeedProfile profile) {
+        return new TrafficModel(new SpeedProfile[] { profile }, location -> 0);
+    }
+
+    public int zoneOf(Location location) {
+        return zoneOf.applyAsInt(location);
+    }
+
+    public ArrivalFunction arc(int zone, int baseTime) {
+        return arcs.computeIfAbsent(((long) zone << 32) | baseTime, key -> profiles[zone].arc(baseTime));
+    }
+}
+
+// Distances between indexed locations: 0..n-1 are customers (Customer.index) and n..n+d-1 are
+// depots (Vehicle.depotIndex). Without a road network depot rows are precomputed and customer
+// pairs come from coordinates; arcs missing from a sparse network fall back to the same values.
+class DistanceMatrix {
+    private final int customerCount;
+    private final List<Location> depots;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] depotRows;
+    private final RoadNetwork network;
+    private final int[] rows;
+    private TrafficModel traffic;
+    private int[] zones;
+
+    public DistanceMatrix(List<Customer> customers, List<Location> depots) {
+        this(customers, depots, null);
+    }
+
+    public DistanceMatrix(List<Customer> customers, List<Location> depots, RoadNetwork network) {
+        this.network = network;
+        this.rows = network != null ? network.rows(customers, depots) : null;
+        this.customerCount = customers.size();
+        this.depots = depots;
+        int size = customerCount + depots.size();
+        this.xs = new int[size];
+        this.ys = new int[size];
+        for (int i = 0; i < customerCount; i++) {
+            xs[i] = customers.get(i).location.x;
+            ys[i] = customers.get(i).location.y;
+        }
+        for (int k = 0; k < depots.size(); k++) {
+            xs[customerCount + k] = depots.get(k).x;
+            ys[customerCount + k] = depots.get(k).y;
+        }
+        this.depotRows = new int[depots.size() * size];
+        for (int k = 0; k < depots.size(); k++) {
+            for (int i = 0; i < size; i++) {
+                depotRows[k * size + i] = euclidean(customerCount + k, i);
+            }
+        }
+    }
+
+    public int distance(int from, int to) {
+        if (rows != null) {
+            int distance = network.distances.get(rows[from], rows[to]);
+            if (distance != MatrixFile.MISSING) {
+                return distance;
+            }
+        }
+        return straightLine(from, to);
+    }
+
+    public int travelTime(int from, int to) {
+        if (rows != null) {
+            int time = network.travelTimes.get(rows[from], rows[to]);
+            if (time != MatrixFile.MISSING) {
+                return time;
+            }
+        }
+        return straightLine(from, to);
+    }
+
+    public void setTraffic(TrafficModel traffic) {
+        this.traffic = traffic;
+        this.zones = new int[xs.length];
+        for (int i = 0; i < xs.length && traffic != null; i++) {
+            zones[i] = traffic.zoneOf(new Location(xs[i], ys[i]));
+        }
+    }
+
+    public boolean isTimeDependent() {
+        return traffic != null;
+    }
+
+    // Arrival when leaving from at departure, rounded up to whole time units
+    public int arrivalTime(int from, int to, int departure) {
+        if (traffic == null) {
+            return departure + travelTime(from, to);
+        }
+        return (int) Math.ceil(arc(from, to).at(departure));
+    }
+
+    public ArrivalFunction arc(int from, int to) {
+        if (traffic == null) {
+            int time = travelTime(from, to);
+            return new ArrivalFunction(new double[] { 0 }, new double[] { time });
+        }
+        return traffic.arc(zones[from], travelTime(from, to));
+    }
+
+    private int straightLine(int from, int to) {
+        if (from >= customerCount) {
+            return depotRows[(from - customerCount) * xs.length + to];
+        }
+        if (to >= customerCount) {
+            return depotRows[(to - customerCount) * xs.length + from];
+        }
+        return euclidean(from, to);
+    }
+
+    // Whether every distance is the truncated euclidean distance of the coordinates below
+    public boolean isStraightLine() {
+        return rows == null;
+    }
+
+    public int x(int index) {
+        return xs[index];
+    }
+
+    public int y(int index) {
+        return ys[index];
+    }
+
+    private int euclidean(int from, int to) {
+        int dx = xs[from] - xs[to];
+        int dy = ys[from] - ys[to];
+        return (int) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    public int depotCount() {
+        return depots.size();
+    }
+
+    public int depotIndex(int depot) {
+        return customerCount + depot;
+    }
+
+    public Location depot(int depot) {
+        return depots.get(depot);
+    }
+}
+
+// Which customer can ever be served directly after which, depending only on the instance:
+// j can follow i when leaving i at its earliest departure still reaches j by latest_j. A real
+// schedule leaves i at earliest_i + serving_i at the soonest, while the greedy construction
+// times the leg from latest_i, so the earlier of the two is used and the bit never rules out
+// a successor that either of them would accept (arrival times only grow with departure time).
+// Small instances keep a bitset adjacency matrix, large ones a CSR list of sorted successors.
+class CompatibilityGraph {
+    static final int DENSE_LIMIT = 8192;
+
+    private final List<Customer> customers;
+    private final DistanceMatrix matrix;
+    private final int size;
+    private final int wordsPerRow;
+    private final long[] bits;
+    private final int[] offsets;
+    private final int[] successors;
+
+    private CompatibilityGraph(List<Customer> customers, DistanceMatrix matrix, boolean dense) {
+        this.customers = customers;
+        this.matrix = matrix;
+        this.size = customers.size();
+        if (dense) {
+            this.wordsPerRow = (size + 63) >>> 6;
+            this.bits = new long[size * wordsPerRow];
+            this.offsets = null;
+            this.successors = null;
+            // Every row owns its own words, so rows can be filled concurrently
+            IntStream.range(0, size).parallel().forEach(i -> {
+                for (int j = 0; j < size; j++) {
+                    if (compatible(i, j)) {
+                        bits[i * wordsPerRow + (j >>> 6)] |= 1L << j;
+                    }
+                }
+            });
+        } else {
+            this.wordsPerRow = 0;
+            this.bits = null;
+            this.offsets = new int[size + 1];
+            int[] counts = new int[size];
+            IntStream.range(0, size).parallel().forEach(i -> {
+                for (int j = 0; j < size; j++) {
+                    if (compatible(i, j)) {
+                        counts[i]++;
+                    }
+                }
+            });
+            for (int i = 0; i < size; i++) {
+                offsets[i + 1] = offsets[i] + counts[i];
+            }
+            this.successors = new int[offsets[size]];
+            IntStream.range(0, size).parallel().forEach(i -> {
+                int next = offsets[i];
+                for (int j = 0; j < size; j++) {
+                    if (compatible(i, j)) {
+                        successors[next++] = j;
+                    }
+                }
+            });
+        }
+    }
+
+    public static CompatibilityGraph build(List<Customer> customers, DistanceMatrix matrix) {
+        return new CompatibilityGraph(customers, matrix, customers.size() <= DENSE_LIMIT);
+    }
+
+    private boolean compatible(int i, int j) {
+        if (i == j) {
+            return false;
+        }
+        Customer from = customers.get(i);
+        Customer to = customers.get(j);
+        int departure = Math.min(from.earliest_arrival_time + from.serving_time, from.latest_arrival_time);
+        return matrix.arrivalTime(i, j, departure) <= to.latest_arrival_time;
+    }
+
+    public boolean canFollow(int from, int to) {
+        if (bits != null) {
+            return (bits[from * wordsPerRow + (to >>> 6)] & (1L << to)) != 0;
+        }
+        return Arrays.binarySearch(successors, offsets[from], offsets[from + 1], to) >= 0;
+    }
+}
+
+class MovePruner {
+    private final CompatibilityGraph compatibility;
+
+    public MovePruner(CompatibilityGraph compatibility) {
+        this.compatibility = compatibility;
+    }
+
+    public boolean canFollow(Customer from, Customer to) {
+        return compatibility.canFollow(from.index, to.index);
+    }
+
+    public boolean fitsCapacity(int load, int removedDemand, int addedDemand, int capacity) {
+        return load - removedDemand + addedDemand <= capacity;
+    }
+
+    // Removing two customers saves at most gain1 + gain2 and, by the triangle inequality, reinserting them
+    // costs at least nothing; each truncated distance can break the inequality by one unit per insertion
+    public boolean cannotImprove(int currentValue, int bestValue, int gain1, int gain2, int insertions) {
+        return currentValue - gain1 - gain2 - insertions >= bestValue;
+    }
+}
+
+// Time-window data of one route under time-dependent travel: departure after service at every stop
+// when leaving the depot at 0, and the latest arrival at every stop that keeps the rest of the
+// route on time.
+class RouteSchedule {
+    final int depotIndex;
+    final int[] stops;
+    final double[] departures;
+    final double[] latestArrivals;
+
+    RouteSchedule(Vehicle vehicle, DistanceMatrix matrix) {
+        List<Customer> customers = vehicle.route;
+        int size = customers.size();
+        this.depotIndex = vehicle.depotIndex;
+        this.stops = new int[size];
+        this.departures = new double[size];
+        this.latestArrivals = new double[size];
+
+        double time = 0;
+        int previous = vehicle.depotIndex;
+        for (int i = 0; i < size; i++) {
+            Customer customer = customers.get(i);
+            stops[i] = customer.index;
+            ArrivalFunction arc = matrix.arc(previous, customer.index);
+            time = Math.max(arc.at(time), customer.earliest_arrival_time) + customer.serving_time;
+            departures[i] = time;
+            previous = customer.index;
+        }
+
+        for (int i = size - 1; i >= 0; i--) {
+            Customer customer = customers.get(i);
+            double latest = customer.latest_arrival_time;
+            if (i + 1 < size) {
+                double latestDeparture = matrix.arc(customer.index, stops[i + 1]).latestBefore(latestArrivals[i + 1]);
+                latest = Math.min(latest, latestDeparture - customer.serving_time);
+                if (latestDeparture - customer.serving_time < customer.earliest_arrival_time) {
+                    latest = Double.NEGATIVE_INFINITY;
+                }
+            }
+            latestArrivals[i] = latest;
+        }
+    }
+
+    boolean matches(Vehicle vehicle) {
+        if (vehicle.depotIndex != depotIndex || vehicle.route.size() != stops.length) {
+            return false;
+        }
+        for (int i = 0; i < stops.length; i++) {
+            if (vehicle.route.get(i).index != stops[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+// Weights of the soft-constraint objective
+//   distance + capacity * excess load + timeWarp * time warp + vehicle * used vehicles.
+// The capacity and time-warp weights grow while the current solution violates them and shrink
+// while it does not, so the search keeps moving along the feasibility border.
+class PenaltyWeights {
+    static final double GROWTH = 1.2;
+    static final double MIN_WEIGHT = 0.1;
+    static final double MAX_WEIGHT = 10000;
+
+    double capacity;
+    double timeWarp;
+    double vehicle;
+
+    public PenaltyWeights(double capacity, double timeWarp, double vehicle) {
+        this.capacity = capacity;
+        this.timeWarp = timeWarp;
+        this.vehicle = vehicle;
+    }
+
+    public void adapt(boolean capacityFeasible, boolean timeFeasible) {
+        capacity = capacityFeasible ? Math.max(MIN_WEIGHT, capacity / GROWTH) : Math.min(MAX_WEIGHT, capacity * GROWTH);
+        timeWarp = timeFeasible ? Math.max(MIN_WEIGHT, timeWarp / GROWTH) : Math.min(MAX_WEIGHT, timeWarp * GROWTH);
+    }
+}
+
+// Load profile and position index of one route for pickup and delivery. Customers without a pair
+// are loaded at the depot, a pickup adds its demand and its delivery drops it again. load(k) is
+// the load on the arc leaving the k-th location of the route, 0 being the depot, so putting a
+// pickup before route position i and its delivery before position j >= i adds its demand to
+// load(i)..load(j). Position and load lookups are O(1) after an O(route) build.
+class RouteLoads {
+    private final int[] positions;
+    private int[] stops = new int[16];
+    private int[] loads = new int[17];
+    private int maxLoad;
+    private int size;
+
+    public RouteLoads(int customerCount) {
+        this.positions = new int[customerCount];
+        Arrays.fill(positions, -1);
+    }
+
+    public void build(Vehicle vehicle) {
+        // The previous route may have changed since, so clear its positions from the stored stops
+        for (int i = 0; i < size; i++) {
+            positions[stops[i]] = -1;
+        }
+        List<Customer> route = vehicle.route;
+        size = route.size();
+        if (stops.length < size) {
+            stops = new int[Math.max(size, 2 * stops.length)];
+            loads = new int[stops.length + 1];
+        }
+        int load = 0;
+        for (int i = 0; i < size; i++) {
+            Customer customer = route.get(i);
+            stops[i] = customer.index;
+            positions[customer.index] = i;
+            if (customer.pair == null) {
+                load += customer.demand;
+            }
+        }
+        loads[0] = load;
+        maxLoad = load;
+        for (int i = 0; i < size; i++) {
+            Customer customer = route.get(i);
+            if (customer.pair == null) {
+                load -= customer.demand;
+            } else {
+                load += customer.pickup ? customer.demand : -customer.pair.demand;
+            }
+            loads[i + 1] = load;
+            maxLoad = Math.max(maxLoad, load);
+        }
+    }
+
+    // Position of customer in the route, -1 when it is not on it
+    public int position(Customer customer) {
+        return positions[customer.index];
+    }
+
+    public int load(int k) {
+        return loads[k];
+    }
+
+    // Highest load on any arc of the route
+    public int maxLoad() {
+        return maxLoad;
+    }
+}
+
+// Guided Local Search (Voudouris and Tsang) over arcs: at every local optimum the arcs of the
+// current solution with the highest utility distance / (1 + penalty) get one more penalty, and
+// moves are priced with the augmented cost distance + lambda * penalty. lambda is alpha times the
+// average arc length of the first local optimum. The augmented costs are kept in a dense matrix
+// next to the penalties, so move deltas stay array reads; above MAX_LOCATIONS that matrix gets
+// too big and the instance should go through DecompositionSolver instead.
+class GuidedPenalties {
+    static final int MAX_LOCATIONS = 4096;
+
+    private final DistanceMatrix matrix;
+    private final int size;
+    private final double alpha;
+    private final int[] penalties;
+    private final int[] augmented;
+    private double lambda = -1;
+
+    public GuidedPenalties(DistanceMatrix matrix, int size, double alpha) {
+        if (size > MAX_LOCATIONS) {
+            throw new IllegalArgumentException("Guided local search supports up to " + MAX_LOCATIONS + " locations, got " + size);
+        }
+        this.matrix = matrix;
+        this.size = size;
+        this.alpha = alpha;
+        this.penalties = new int[size * size];
+        this.augmented = new int[size * size];
+        IntStream.range(0, size).parallel().forEach(from -> {
+            for (int to = 0; to < size; to++) {
+                augmented[from * size + to] = matrix.distance(from, to);
+            }
+        });
+    }
+
+    public int cost(int from, int to) {
+        return augmented[from * size + to];
+    }
+
+    public int penalty(int from, int to) {
+        return penalties[from * size + to];
+    }
+
+    // Penalise the arcs of a local optimum that have the highest utility
+    public void penalize(Solution solution) {
+        int arcs = 0;
+        long length = 0;
+        double maxUtility = -1;
+        for (Vehicle vehicle : solution.vehicles) {
+            if (vehicle.route.isEmpty()) {
+                continue;
+            }
+            int previous = vehicle.depotIndex;
+            for (int i = 0; i <= vehicle.route.size(); i++) {
+                int current = i < vehicle.route.size() ? vehicle.route.get(i).index : vehicle.depotIndex;
+                int distance = matrix.distance(previous, current);
+                maxUtility = Math.max(maxUtility, distance / (1.0 + penalties[previous * size + current]));
+                length += distance;
+                arcs++;
+                previous = current;
+            }
+        }
+        if (arcs == 0) {
+            return;
+        }
+        if (lambda < 0) {
+            lambda = alpha * length / arcs;
+        }
+        for (Vehicle vehicle : solution.vehicles) {
+            if (vehicle.route.isEmpty()) {
+                continue;
+            }
+            int previous = vehicle.depotIndex;
+            for (int i = 0; i <= vehicle.route.size(); i++) {
+                int current = i < vehicle.route.size() ? vehicle.route.get(i).index : vehicle.depotIndex;
+                int arc = previous * size + current;
+                int distance = matrix.distance(previous, current);
+                if (distance / (1.0 + penalties[arc]) >= maxUtility) {
+                    penalties[arc]++;
+                    augmented[arc] = distance + (int) Math.round(lambda * penalties[arc]);
+                }
+                previous = current;
+            }
+        }
+    }
+}
+
+// Load and time-warp data of one route as prefix and suffix segments (Vidal et al.), so the time
+// warp of the route with one stop removed or replaced is two O(1) concatenations. Time warp is the
+// total amount by which arrivals have to be pulled back to their latest arrival time.
+// Prefix k is the depot and the first k customers, suffix k is customers k.. and the depot.
+// Moves that change more than one place of the route are priced piece by piece: startAt(prefix),
+// any number of then(...) for stretches of the route or single customers, and endWith(suffix).
+// The vehicle's driver rules ride along. The depot ends carry the shift window, so coming back
+// after the shift end is time warp at the depot. A break is a stop of breakDuration with an open
+// window, made after the last customer before breakAfter of driving and service since the start
+// or the previous break would be exceeded, so only waiting after that point can absorb it.
+// Prefixes are stored with their breaks in place; suffixes and stretches are stored without and
+// split where a break falls as they are appended, found by binary search over the cumulative
+// work. Elapsed time beyond maxDuration counts as time warp too, so every check and price built
+// on time warp enforces the driver rules as well.
+class RouteSegments {
+    static final int OPEN = Integer.MAX_VALUE / 4;
+
+    private int size;
+    private int depotIndex;
+    private int[] stops = new int[16];
+    private int[] prefixDuration = new int[17];
+    private int[] prefixWarp = new int[17];
+    private int[] prefixEarliest = new int[17];
+    private int[] prefixLatest = new int[17];
+    private int[] suffixDuration = new int[17];
+    private int[] suffixWarp = new int[17];
+    private int[] suffixEarliest = new int[17];
+    private int[] suffixLatest = new int[17];
+    // Driving and service time, breaks left out; prefixSinceBreak is the part after the last break
+    private int[] prefixWork = new int[17];
+    private int[] prefixSinceBreak = new int[17];
+    private int[] suffixWork = new int[17];
+    private int[] stopEarliest = new int[16];
+    private int[] stopLatest = new int[16];
+    private int[] stopService = new int[16];
+    // Segment of customers a..b-1 at a * size + b - 1, built on the first then(from, to)
+    private boolean rangesReady;
+    private int[] rangeDuration = new int[0];
+    private int[] rangeWarp = new int[0];
+    private int[] rangeEarliest = new int[0];
+    private int[] rangeLatest = new int[0];
+    private int[] rangeWork = new int[0];
+    int load;
+    int capacity;
+    private int maxDuration;
+    private int breakAfter;
+    private int breakDuration;
+
+    // Scratch segment the concatenations accumulate into
+    private int duration;
+    private int warp;
+    private int earliest;
+    private int latest;
+    private int work;
+    private int sinceBreak;
+    private int last;
+    private DistanceMatrix matrix;
+
+    public void build(Vehicle vehicle, DistanceMatrix matrix) {
+        this.matrix = matrix;
+        this.size = vehicle.route.size();
+        this.depotIndex = vehicle.depotIndex;
+        this.capacity = vehicle.capacity;
+        this.maxDuration = vehicle.maxDuration;
+        this.breakAfter = vehicle.breakAfter;
+        this.breakDuration = vehicle.breakDuration;
+        this.load = 0;
+        this.rangesReady = false;
+        if (stops.length < size) {
+            int length = Math.max(size, 2 * stops.length);
+            stops = new int[length];
+            stopEarliest = new int[length];
+            stopLatest = new int[length];
+            stopService = new int[length];
+            prefixDuration = new int[length + 1];
+            prefixWarp = new int[length + 1];
+            prefixEarliest = new int[length + 1];
+            prefixLatest = new int[length + 1];
+            suffixDuration = new int[length + 1];
+            suffixWarp = new int[length + 1];
+            suffixEarliest = new int[length + 1];
+            suffixLatest = new int[length + 1];
+            prefixWork = new int[length + 1];
+            prefixSinceBreak = new int[length + 1];
+            suffixWork = new int[length + 1];
+        }
+
+        start(0, 0, vehicle.shiftStart, vehicle.shiftEnd);
+        sinceBreak = 0;
+        storePrefix(0);
+        for (int i = 0; i < size; i++) {
+            Customer customer = vehicle.route.get(i);
+            stops[i] = customer.index;
+            stopEarliest[i] = customer.earliest_arrival_time;
+            stopLatest[i] = customer.latest_arrival_time;
+            stopService[i] = customer.serving_time;
+            load += customer.demand;
+            int travel = matrix.travelTime(i > 0 ? stops[i - 1] : depotIndex, customer.index);
+            breakBefore(travel + customer.serving_time);
+            append(travel, customer.serving_time, 0, customer.earliest_arrival_time, customer.latest_arrival_time, customer.serving_time);
+            storePrefix(i + 1);
+        }
+
+        suffixDuration[size] = 0;
+        suffixWarp[size] = 0;
+        suffixEarliest[size] = 0;
+        suffixLatest[size] = vehicle.shiftEnd;
+        suffixWork[size] = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            Customer customer = vehicle.route.get(i);
+            start(customer.serving_time, 0, customer.earliest_arrival_time, customer.latest_arrival_time);
+            append(matrix.travelTime(customer.index, i + 1 < size ? stops[i + 1] : depotIndex),
+                    suffixDuration[i + 1], suffixWarp[i + 1], suffixEarliest[i + 1], suffixLatest[i + 1], suffixWork[i + 1]);
+            suffixDuration[i] = duration;
+            suffixWarp[i] = warp;
+            suffixEarliest[i] = earliest;
+            suffixLatest[i] = latest;
+            suffixWork[i] = work;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int timeWarp() {
+        return warpWithout(size, size);
+    }
+
+    // Time warp of prefix(prefix) + suffix(suffix)
+    public int warpWithout(int prefix, int suffix) {
+        startAt(prefix);
+        return endWith(suffix);
+    }
+
+    // Time warp of prefix(prefix) + customer + suffix(suffix)
+    public int warpWith(int prefix, Customer customer, int suffix) {
+        startAt(prefix);
+        then(customer);
+        return endWith(suffix);
+    }
+
+    public void startAt(int prefix) {
+        loadPrefix(prefix);
+        last = lastOf(prefix);
+    }
+
+    // Append customers from..to-1 of the route, split by the breaks that fall among them;
+    // nothing when from >= to
+    public void then(int from, int to) {
+        while (from < to) {
+            int travel = matrix.travelTime(last, stops[from]);
+            int fits = breakAfter > 0 ? fitting(from, to, travel) : to;
+            if (fits == from) {
+                if (sinceBreak > 0) {
+                    takeBreak();
+                    continue;
+                }
+                // A single leg longer than breakAfter, which no break can shorten
+                fits = from + 1;
+            }
+            appendStops(from, fits, travel);
+            sinceBreak += travel + stopService[from] + prefixWork[fits] - prefixWork[from + 1];
+            from = fits;
+        }
+    }
+
+    public void then(Customer customer) {
+        int travel = matrix.travelTime(last, customer.index);
+        breakBefore(travel + customer.serving_time);
+        append(travel, customer.serving_time, 0, customer.earliest_arrival_time, customer.latest_arrival_time, customer.serving_time);
+        last = customer.index;
+    }
+
+    // Time warp of the pieces so far + suffix(suffix)
+    public int endWith(int suffix) {
+        int travel = matrix.travelTime(last, firstOf(suffix));
+        if (breakAfter > 0 && sinceBreak + travel + suffixWork[suffix] > breakAfter) {
+            then(suffix, size);
+            travel = matrix.travelTime(last, depotIndex);
+            breakBefore(travel);
+            suffix = size;
+        }
+        append(travel, suffixDuration[suffix], suffixWarp[suffix], suffixEarliest[suffix], suffixLatest[suffix], suffixWork[suffix]);
+        return warp + Math.max(0, duration - warp - maxDuration);
+    }
+
+    private int lastOf(int prefix) {
+        return prefix > 0 ? stops[prefix - 1] : depotIndex;
+    }
+
+    private int firstOf(int suffix) {
+        return suffix < size ? stops[suffix] : depotIndex;
+    }
+
+    // Take a break first if this leg of work would run past breakAfter since the last one
+    private void breakBefore(int leg) {
+        if (breakAfter > 0 && sinceBreak > 0 && sinceBreak + leg > breakAfter) {
+            takeBreak();
+        }
+        sinceBreak += leg;
+    }
+
+    private void takeBreak() {
+        append(0, breakDuration, 0, 0, OPEN, 0);
+        sinceBreak = 0;
+    }
+
+    // Largest k in from..to such that customers from..k-1, reached with travel, fit in the work
+    // left before the next break
+    private int fitting(int from, int to, int travel) {
+        int left = breakAfter - sinceBreak - travel - stopService[from];
+        if (left < 0) {
+            return from;
+        }
+        int low = from + 1;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (prefixWork[middle] - prefixWork[from + 1] <= left) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // Customers from..to-1 as one segment, from the range table unless it is a single customer
+    private void appendStops(int from, int to, int travel) {
+        if (to == from + 1) {
+            append(travel, stopService[from], 0, stopEarliest[from], stopLatest[from], stopService[from]);
+        } else {
+            if (!rangesReady) {
+                buildRanges();
+            }
+            int range = from * size + to - 1;
+            append(travel, rangeDuration[range], rangeWarp[range], rangeEarliest[range], rangeLatest[range], rangeWork[range]);
+        }
+        last = stops[to - 1];
+    }
+
+    // O(route^2) once per build; keeps the pieces concatenated so far
+    private void buildRanges() {
+        int savedDuration = duration;
+        int savedWarp = warp;
+        int savedEarliest = earliest;
+        int savedLatest = latest;
+        int savedWork = work;
+        if (rangeDuration.length < size * size) {
+            int length = Math.max(size * size, 2 * rangeDuration.length);
+            rangeDuration = new int[length];
+            rangeWarp = new int[length];
+            rangeEarliest = new int[length];
+            rangeLatest = new int[length];
+            rangeWork = new int[length];
+        }
+        for (int from = 0; from < size; from++) {
+            start(stopService[from], 0, stopEarliest[from], stopLatest[from]);
+            for (int to = from + 1; to <= size; to++) {
+                if (to > from + 1) {
+                    append(matrix.travelTime(stops[to - 2], stops[to - 1]),
+                            stopService[to - 1], 0, stopEarliest[to - 1], stopLatest[to - 1], stopService[to - 1]);
+                }
+                int range = from * size + to - 1;
+                rangeDuration[range] = duration;
+                rangeWarp[range] = warp;
+                rangeEarliest[range] = earliest;
+                rangeLatest[range] = latest;
+                rangeWork[range] = work;
+            }
+        }
+        duration = savedDuration;
+        warp = savedWarp;
+        earliest = savedEarliest;
+        latest = savedLatest;
+        work = savedWork;
+        rangesReady = true;
+    }
+
+    // A single stop, or the depot: no waiting yet, so all of its duration is work
+    private void start(int duration, int warp, int earliest, int latest) {
+        this.duration = duration;
+        this.warp = warp;
+        this.earliest = earliest;
+        this.latest = latest;
+        this.work = duration;
+    }
+
+    private void loadPrefix(int prefix) {
+        start(prefixDuration[prefix], prefixWarp[prefix], prefixEarliest[prefix], prefixLatest[prefix]);
+        work = prefixWork[prefix];
+        sinceBreak = prefixSinceBreak[prefix];
+    }
+
+    private void storePrefix(int prefix) {
+        prefixDuration[prefix] = duration;
+        prefixWarp[prefix] = warp;
+        prefixEarliest[prefix] = earliest;
+        prefixLatest[prefix] = latest;
+        prefixWork[prefix] = work;
+        prefixSinceBreak[prefix] = sinceBreak;
+    }
+
+    // scratch = scratch + travel + (nextDuration, nextWarp, nextEarliest, nextLatest, nextWork)
+    private void append(int travel, int nextDuration, int nextWarp, int nextEarliest, int nextLatest, int nextWork) {
+        int delta = duration - warp + travel;
+        int waiting = Math.max(nextEarliest - delta - latest, 0);
+        int addedWarp = Math.max(earliest + delta - nextLatest, 0);
+        int newEarliest = Math.max(nextEarliest - delta, earliest) - waiting;
+        int newLatest = Math.min(nextLatest - delta, latest) + addedWarp;
+        duration = duration + nextDuration + travel + waiting;
+        warp = warp + nextWarp + addedWarp;
+        work = work + travel + nextWork;
+        earliest = newEarliest;
+        latest = newLatest;
+    }
+}
+
+class RouteArena {
+    private static final ThreadLocal<RouteArena> ARENA = ThreadLocal.withInitial(RouteArena::new);
+
+    private final List<int[]> routeBuffers = new ArrayList<>();
+    private final List<Solution> solutionShells = new ArrayList<>();
+    private int routesInUse;
+    private int shellsInUse;
+
+    public static RouteArena get() {
+        return ARENA.get();
+    }
+
+    // Hand out a route buffer of at least minLength customer indices; valid until the next reset()
+    public int[] acquireRoute(int minLength) {
+        if (routesInUse == routeBuffers.size()) {
+            routeBuffers.add(new int[Math.max(16, minLength)]);
+        }
+        int[] buffer = routeBuffers.get(routesInUse);
+        if (buffer.length < minLength) {
+            buffer = new int[Math.max(minLength, buffer.length * 2)];
+            routeBuffers.set(routesInUse, buffer);
+        }
+        routesInUse++;
+        return buffer;
+    }
+
+    // Hand out a solution shell holding a copy of template; valid until the next reset()
+    public Solution acquireSolution(Solution template) {
+        if (shellsInUse == solutionShells.size()) {
+            solutionShells.add(new Solution(new ArrayList<>()));
+        }
+        Solution shell = solutionShells.get(shellsInUse++);
+        shell.copyFrom(template);
+        return shell;
+    }
+
+    public void reset() {
+        routesInUse = 0;
+        shellsInUse = 0;
+    }
+}
+
+// Flight Recorder events for watching a solve in the field next to GC and CPU data, e.g. with
+// java -XX:StartFlightRecording:filename=solve.jfr. None of them record stack traces, and the
+// tabu search only commits a batch event every SearchTelemetry.BATCH_ITERATIONS iterations, so
+// they can stay enabled in production.
+@Name("vrp.IterationBatch")
+@Label("Iteration Batch")
+@Category({ "VRP", "Search" })
+@StackTrace(false)
+class IterationBatchEvent extends Event {
+    @Label("First Iteration")
+    int firstIteration;
+
+    @Label("Iterations")
+    int iterations;
+
+    @Label("Best Cost")
+    double bestCost;
+
+    @Label("Current Cost")
+    double currentCost;
+
+    @Label("Moves Evaluated")
+    long movesEvaluated;
+
+    @Label("Accepted Moves")
+    int accepted;
+
+    @Label("Acceptance Rate")
+    @Percentage
+    double acceptanceRate;
+}
+
+@Name("vrp.Phase")
+@Label("Solver Phase")
+@Category({ "VRP", "Search" })
+@StackTrace(false)
+class PhaseEvent extends Event {
+    static final String CONSTRUCTION = "construction";
+    static final String LOCAL_SEARCH = "local search";
+    static final String PERTURBATION = "perturbation";
+    static final String ROUTE_ELIMINATION = "route elimination";
+    static final String BOUNDARY_REPAIR = "boundary repair";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Customers")
+    int customers;
+
+    // Only set by construction: customers no route could take
+    @Label("Unrouted Customers")
+    int unrouted;
+
+    PhaseEvent(String phase, int customers) {
+        this.phase = phase;
+        this.customers = customers;
+    }
+}
+
+@Name("vrp.Improvement")
+@Label("Solution Improvement")
+@Category({ "VRP", "Search" })
+@StackTrace(false)
+class ImprovementEvent extends Event {
+    @Label("Iteration")
+    int iteration;
+
+    @Label("Cost")
+    double cost;
+
+    @Label("Distance")
+    int distance;
+
+    @Label("Routes")
+    int routes;
+}
+
+class SearchTelemetry {
+    static final int BATCH_ITERATIONS = 1000;
+}
+
+// Cluster-first, route-second solver for instances too large for a single tabu search:
+// customers go to their nearest depot and are swept by polar angle around it into clusters,
+// every cluster is routed independently on its own thread, and adjacent clusters are then
+// repaired pairwise. Sub-solvers number their customers through Customer.index, so each one
+// works on its own copies and its routes are mapped back to the caller's customers.
+// Customers a cluster cannot serve go into the repairs of its boundaries; whatever is still
+// left after those is reported by unserved(). The sweep knows nothing of pickup-and-delivery
+// pairs and could split one over two clusters, so instances with pairs are rejected.
+class DecompositionSolver {
+    private final List<Customer> customers;
+    private final List<Vehicle> vehicles;
+    private final int clusterSize;
+    private final int iterations;
+    private final int threads;
+    private final RoadNetwork network;
+    private long searchIterations;
+    private final List<Customer> unserved = new ArrayList<>();
+
+    public DecompositionSolver(List<Customer> customers, List<Vehicle> vehicles, int clusterSize, int iterations, int threads) {
+        this(customers, vehicles, clusterSize, iterations, threads, null);
+    }
+
+    public DecompositionSolver(List<Customer> customers, List<Vehicle> vehicles, int clusterSize, int iterations, int threads, RoadNetwork network) {
+        for (Customer customer : customers) {
+            if (customer.pair != null) {
+                throw new IllegalArgumentException("Customer " + customer.id + " is in a pickup-and-delivery pair, which decomposition does not support");
+            }
+        }
+        this.network = network;
+        this.customers = customers;
+        this.vehicles = vehicles;
+        this.clusterSize = clusterSize;
+        this.iterations = iterations;
+        this.threads = threads;
+    }
+
+    public Solution solve() {
+        searchIterations = 0;
+        List<List<Customer>> clusters = new ArrayList<>();
+        List<List<Vehicle>> fleets = new ArrayList<>();
+        List<int[]> boundaries = new ArrayList<>();
+        List<Location> depots = new ArrayList<>();
+        for (Vehicle vehicle : vehicles) {
+            // Clusters are routed from scratch, so drop whatever the fleet carried before
+            vehicle.route.clear();
+            if (depotOf(depots, vehicle.depot) < 0) {
+                depots.add(vehicle.depot);
+            }
+        }
+        for (int d = 0; d < depots.size(); d++) {
+            List<Vehicle> depotFleet = new ArrayList<>();
+            for (Vehicle vehicle : vehicles) {
+                if (depotOf(depots, vehicle.depot) == d) {
+                    depotFleet.add(vehicle);
+                }
+            }
+            List<Customer> depotCustomers = new ArrayList<>();
+            for (Customer customer : customers) {
+                if (nearestDepot(depots, customer.location) == d) {
+                    depotCustomers.add(customer);
+                }
+            }
+            List<List<Customer>> depotClusters = sweep(depotCustomers, depots.get(d), depotFleet.size());
+            // Neighbouring sectors share a boundary, the last one with the first as the sweep goes all the way round
+            int first = clusters.size();
+            for (int c = 0; c + 1 < depotClusters.size(); c++) {
+                boundaries.add(new int[] {first + c, first + c + 1});
+            }
+            if (depotClusters.size() > 2) {
+                boundaries.add(new int[] {first + depotClusters.size() - 1, first});
+            }
+            clusters.addAll(depotClusters);
+            fleets.addAll(assignFleets(depotClusters, depotFleet));
+        }
+        Map<Customer, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < customers.size(); i++) {
+            positions.put(customers.get(i), i);
+        }
+        boolean[] served = new boolean[customers.size()];
+        List<List<Vehicle>> routes = new ArrayList<>();
+        List<List<Customer>> leftovers = new ArrayList<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Solution>> tasks = new ArrayList<>();
+            for (int c = 0; c < clusters.size(); c++) {
+                List<Customer> cluster = clusters.get(c);
+                List<Vehicle> fleet = fleets.get(c);
+                tasks.add(() -> {
+                    VRPWithTimeWindows solver = new VRPWithTimeWindows(copies(cluster), fleet, network);
+                    Solution solution = solver.tabuSearch(solver.createInitialSolution(), iterations);
+                    restore(fleet, cluster);
+                    restore(solution.vehicles, cluster);
+                    return solution;
+                });
+            }
+            for (Solution solution : await(executor.invokeAll(tasks))) {
+                routes.add(solution.vehicles);
+                markServed(solution.vehicles, positions, served);
+            }
+            for (List<Customer> cluster : clusters) {
+                List<Customer> left = new ArrayList<>();
+                for (Customer customer : cluster) {
+                    if (!served[positions.get(customer)]) {
+                        left.add(customer);
+                    }
+                }
+                leftovers.add(left);
+            }
+            searchIterations += (long) tasks.size() * iterations;
+
+            // Repair the boundaries in phases; each phase takes the boundaries it can without two of
+            // them sharing a cluster, so its repairs run in parallel on disjoint routes
+            List<int[]> pending = boundaries;
+            while (!pending.isEmpty()) {
+                boolean[] busy = new boolean[clusters.size()];
+                List<int[]> phase = new ArrayList<>();
+                List<int[]> later = new ArrayList<>();
+                for (int[] boundary : pending) {
+                    if (busy[boundary[0]] || busy[boundary[1]]) {
+                        later.add(boundary);
+                    } else {
+                        busy[boundary[0]] = true;
+                        busy[boundary[1]] = true;
+                        phase.add(boundary);
+                    }
+                }
+                pending = later;
+
+                List<Callable<Solution>> repairs = new ArrayList<>();
+                for (int[] boundary : phase) {
+                    List<Vehicle> pair = new ArrayList<>(routes.get(boundary[0]));
+                    pair.addAll(routes.get(boundary[1]));
+                    List<Customer> left = new ArrayList<>(leftovers.get(boundary[0]));
+                    left.addAll(leftovers.get(boundary[1]));
+                    repairs.add(() -> repairBoundary(pair, left));
+                }
+                PhaseEvent repairPhase = new PhaseEvent(PhaseEvent.BOUNDARY_REPAIR, customers.size());
+                repairPhase.begin();
+                List<Solution> repaired = await(executor.invokeAll(repairs));
+                repairPhase.commit();
+                searchIterations += (long) repairs.size() * iterations;
+                for (int p = 0; p < repaired.size(); p++) {
+                    int[] boundary = phase.get(p);
+                    List<Vehicle> pair = repaired.get(p).vehicles;
+                    int split = routes.get(boundary[0]).size();
+                    routes.set(boundary[0], new ArrayList<>(pair.subList(0, split)));
+                    routes.set(boundary[1], new ArrayList<>(pair.subList(split, pair.size())));
+                    markServed(pair, positions, served);
+                    leftovers.get(boundary[0]).removeIf(customer -> served[positions.get(customer)]);
+                    leftovers.get(boundary[1]).removeIf(customer -> served[positions.get(customer)]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Decomposition solve interrupted", e);
+        } finally {
+            executor.shutdown();
+        }
+
+        unserved.clear();
+        for (List<Customer> left : leftovers) {
+            unserved.addAll(left);
+        }
+        List<Vehicle> merged = new ArrayList<>();
+        for (List<Vehicle> clusterRoutes : routes) {
+            merged.addAll(clusterRoutes);
+        }
+        return new Solution(merged);
+    }
+
+    // Tabu search iterations of the last solve over all clusters and boundary repairs
+    public long searchIterations() {
+        return searchIterations;
+    }
+
+    // Customers the last solve could not put on any route
+    public List<Customer> unserved() {
+        return unserved;
+    }
+
+    // Re-route two neighbouring clusters together, first inserting the customers neither could serve
+    private Solution repairBoundary(List<Vehicle> pair, List<Customer> left) {
+        List<Customer> pairCustomers = new ArrayList<>();
+        for (Vehicle vehicle : pair) {
+            pairCustomers.addAll(vehicle.route);
+        }
+        pairCustomers.addAll(left);
+        List<Customer> local = copies(pairCustomers);
+        int next = 0;
+        for (Vehicle vehicle : pair) {
+            for (int i = 0; i < vehicle.route.size(); i++) {
+                vehicle.route.set(i, local.get(next++));
+            }
+        }
+        VRPWithTimeWindows solver = new VRPWithTimeWindows(local, pair, network);
+        Solution solution = solver.tabuSearch(solver.createInitialSolution(), iterations);
+        restore(pair, pairCustomers);
+        restore(solution.vehicles, pairCustomers);
+        return solution;
+    }
+
+    private static List<Customer> copies(List<Customer> customers) {
+        List<Customer> copies = new ArrayList<>(customers.size());
+        for (Customer customer : customers) {
+            copies.add(new Customer(customer.id, customer.demand, customer.earliest_arrival_time, customer.latest_arrival_time,
+                    customer.serving_time, customer.location, false));
+        }
+        return copies;
+    }
+
+    // Swap a sub-solver's copies on the routes for the customers they were made from
+    private static void restore(List<Vehicle> vehicles, List<Customer> originals) {
+        for (Vehicle vehicle : vehicles) {
+            vehicle.route.replaceAll(copy -> originals.get(copy.index));
+        }
+    }
+
+    private static void markServed(List<Vehicle> vehicles, Map<Customer, Integer> positions, boolean[] served) {
+        for (Vehicle vehicle : vehicles) {
+            for (Customer customer : vehicle.route) {
+                served[positions.get(customer)] = true;
+            }
+        }
+    }
+
+    private List<Solution> await(List<Future<Solution>> futures) throws InterruptedException {
+        List<Solution> solutions = new ArrayList<>();
+        for (Future<Solution> future : futures) {
+            try {
+                solutions.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Cluster solve failed", e.getCause());
+            }
+        }
+        return solutions;
+    }
+
+    private int depotOf(List<Location> depots, Location location) {
+        for (int d = 0; d < depots.size(); d++) {
+            if (depots.get(d).x == location.x && depots.get(d).y == location.y) {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    private int nearestDepot(List<Location> depots, Location location) {
+        int nearest = 0;
+        long nearestSquared = Long.MAX_VALUE;
+        for (int d = 0; d < depots.size(); d++) {
+            long dx = depots.get(d).x - location.x;
+            long dy = depots.get(d).y - location.y;
+            if (dx * dx + dy * dy < nearestSquared) {
+                nearest = d;
+                nearestSquared = dx * dx + dy * dy;
+            }
+        }
+        return nearest;
+    }
+
+    // Sort customers by polar angle around the depot and cut the sweep into consecutive sectors
+    private List<List<Customer>> sweep(List<Customer> customers, Location depot, int maxClusters) {
+        List<Customer> sorted = new ArrayList<>(customers);
+        sorted.sort(Comparator.comparingDouble((Customer c) -> Math.atan2(c.location.y - depot.y, c.location.x - depot.x))
+                .thenComparingInt(c -> c.earliest_arrival_time));
+
+        int clusterCount = Math.max(1, Math.min(maxClusters, (sorted.size() + clusterSize - 1) / clusterSize));
+        List<List<Customer>> clusters = new ArrayList<>();
+        for (int c = 0; c < clusterCount; c++) {
+            int from = (int) ((long) sorted.size() * c / clusterCount);
+            int to = (int) ((long) sorted.size() * (c + 1) / clusterCount);
+            clusters.add(new ArrayList<>(sorted.subList(from, to)));
+        }
+        return clusters;
+    }
+
+    // Every cluster gets one vehicle, the rest of the fleet is shared out in proportion to demand
+    private List<List<Vehicle>> assignFleets(List<List<Customer>> clusters, List<Vehicle> vehicles) {
+        int[] demands = new int[clusters.size()];
+        long totalDemand = 0;
+        for (int c = 0; c < clusters.size(); c++) {
+            for (Customer customer : clusters.get(c)) {
+                demands[c] += customer.demand;
+            }
+            totalDemand += demands[c];
+        }
+
+        int spare = vehicles.size() - clusters.size();
+        int[] counts = new int[clusters.size()];
+        int assigned = 0;
+        for (int c = 0; c < clusters.size(); c++) {
+            counts[c] = 1 + (int) (spare * demands[c] / Math.max(1, totalDemand));
+            assigned += counts[c];
+        }
+        for (int c = 0; assigned < vehicles.size(); c = (c + 1) % clusters.size()) {
+            counts[c]++;
+            assigned++;
+        }
+
+        List<List<Vehicle>> fleets = new ArrayList<>();
+        int next = 0;
+        for (int c = 0; c < clusters.size(); c++) {
+            fleets.add(new ArrayList<>(vehicles.subList(next, next + counts[c])));
+            next += counts[c];
+        }
+        return fleets;
+    }
+}
+
+// Seeded Solomon-style instances: customers uniformly random (RANDOM), in Gaussian clusters
+// (CLUSTERED) or half and half (MIXED), on a square that grows with the instance so the density
+// stays that of Solomon's 100 customers on 100 x 100. The depot is in the centre. Every window
+// lies around a time the customer can be reached and left in time to return by the horizon, and
+// windowTightness is its width as a fraction of the horizon (1 leaves customers unconstrained).
+// customers() and vehicles() regenerate the same instance from the seed on every call.
+class InstanceGenerator {
+    enum Kind { RANDOM, CLUSTERED, MIXED }
+
+    static final int SERVICE_TIME = 10;
+    static final int MAX_DEMAND = 30;
+
+    private final Kind kind;
+    private final int size;
+    private final long seed;
+    private final double windowTightness;
+    private final int capacity;
+    private final int side;
+    private final int horizon;
+
+    public InstanceGenerator(Kind kind, int size, long seed, double windowTightness, int capacity) {
+        this.kind = kind;
+        this.size = size;
+        this.seed = seed;
+        this.windowTightness = windowTightness;
+        this.capacity = capacity;
+        this.side = (int) Math.round(100 * Math.sqrt(size / 100.0));
+        this.horizon = Math.max(230, 2 * side);
+    }
+
+    public Location depot() {
+        return new Location(side / 2, side / 2);
+    }
+
+    public List<Customer> customers() {
+        Random random = new Random(seed);
+        Location depot = depot();
+        int clusterCount = Math.max(1, (int) Math.round(Math.sqrt(size)));
+        double spread = side / (4 * Math.sqrt(clusterCount));
+        Location[] centres = new Location[clusterCount];
+        for (int c = 0; c < clusterCount; c++) {
+            centres[c] = new Location(random.nextInt(side + 1), random.nextInt(side + 1));
+        }
+
+        List<Customer> customers = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) {
+            boolean clustered = kind == Kind.CLUSTERED || (kind == Kind.MIXED && id % 2 == 0);
+            Location location;
+            if (clustered) {
+                Location centre = centres[random.nextInt(clusterCount)];
+                location = new Location(clamp((int) Math.round(centre.x + spread * random.nextGaussian())),
+                        clamp((int) Math.round(centre.y + spread * random.nextGaussian())));
+            } else {
+                location = new Location(random.nextInt(side + 1), random.nextInt(side + 1));
+            }
+            int demand = 1 + random.nextInt(MAX_DEMAND);
+            int travel = (int) Math.sqrt(Math.pow(location.x - depot.x, 2) + Math.pow(location.y - depot.y, 2));
+            int latestStart = Math.max(travel, horizon - travel - SERVICE_TIME);
+            int centre = travel + random.nextInt(latestStart - travel + 1);
+            int halfWidth = Math.max(SERVICE_TIME, (int) (windowTightness * horizon)) / 2;
+            int latest = Math.min(latestStart, centre + halfWidth);
+            int earliest = Math.max(0, Math.min(centre - halfWidth, latest));
+            customers.add(new Customer(id, demand, earliest, Math.max(latest, travel), SERVICE_TIME, location, false));
+        }
+        return customers;
+    }
+
+    // Enough vehicles for the total demand and at least one per four customers, as in Solomon's sets
+    public List<Vehicle> vehicles() {
+        long totalDemand = 0;
+        for (Customer customer : customers()) {
+            totalDemand += customer.demand;
+        }
+        int fleet = (int) Math.max((totalDemand + capacity - 1) / capacity, (size + 3) / 4);
+        Location depot = depot();
+        List<Vehicle> vehicles = new ArrayList<>(fleet);
+        for (int v = 0; v < fleet; v++) {
+            vehicles.add(new Vehicle(capacity, depot));
+        }
+        return vehicles;
+    }
+
+    private int clamp(int coordinate) {
+        return Math.max(0, Math.min(side, coordinate));
+    }
+}
+
+// Runs the solver over generated instances of growing size and writes one CSV row per run:
+// wall time, peak heap, tabu iterations per second and the resulting cost. Instances up to
+// --direct-limit customers are also solved by a single tabu search, every instance by the
+// decomposition solver at each thread count. In direct mode solve_ms and iterations per second
+// time the tabu search alone and construction_ms the construction before it; decomposition
+// constructs inside its parallel cluster solves, so there solve_ms covers both and
+// construction_ms is left empty.
+//   java ScalingHarness --sizes 100,1000,10000,100000 --threads 1,2,4,8 --kinds random,clustered,mixed
+//                       --iterations 200 --seed 1 --tightness 0.2 --capacity 200 --out scaling.csv
+class ScalingHarness {
+    static final String HEADER = "kind,customers,mode,threads,seed,construction_ms,solve_ms,peak_heap_mb,iterations,iterations_per_s,distance,routes,unserved";
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("sizes", "100,1000,10000");
+        options.put("threads", "1," + Runtime.getRuntime().availableProcessors());
+        options.put("kinds", "random,clustered,mixed");
+        options.put("iterations", "200");
+        options.put("seed", "1");
+        options.put("tightness", "0.2");
+        options.put("capacity", "200");
+        options.put("cluster-size", "100");
+        options.put("direct-limit", "2000");
+        options.put("out", "scaling.csv");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        int iterations = Integer.parseInt(options.get("iterations"));
+        long seed = Long.parseLong(options.get("seed"));
+        double tightness = Double.parseDouble(options.get("tightness"));
+        int capacity = Integer.parseInt(options.get("capacity"));
+        int clusterSize = Integer.parseInt(options.get("cluster-size"));
+        int directLimit = Integer.parseInt(options.get("direct-limit"));
+
+        List<String> rows = new ArrayList<>();
+        rows.add(HEADER);
+        System.err.println(HEADER);
+        for (String kindName : options.get("kinds").split(",")) {
+            InstanceGenerator.Kind kind = InstanceGenerator.Kind.valueOf(kindName.trim().toUpperCase());
+            for (String sizeText : options.get("sizes").split(",")) {
+                int size = Integer.parseInt(sizeText.trim());
+                InstanceGenerator generator = new InstanceGenerator(kind, size, seed, tightness, capacity);
+                if (size <= directLimit) {
+                    rows.add(run(generator, kind, size, "direct", 1, seed, iterations, clusterSize));
+                }
+                for (String threadText : options.get("threads").split(",")) {
+                    rows.add(run(generator, kind, size, "decomposition", Integer.parseInt(threadText.trim()), seed, iterations, clusterSize));
+                }
+            }
+        }
+        Files.write(Path.of(options.get("out")), rows);
+    }
+
+    private static String run(InstanceGenerator generator, InstanceGenerator.Kind kind, int size, String mode, int threads,
+            long seed, int iterations, int clusterSize) {
+        List<Customer> customers = generator.customers();
+        List<Vehicle> vehicles = generator.vehicles();
+        List<MemoryPoolMXBean> heapPools = resetHeapPeaks();
+
+        Solution solution;
+        long searchIterations;
+        String construction = "";
+        long start;
+        if (mode.equals("direct")) {
+            VRPWithTimeWindows solver = new VRPWithTimeWindows(customers, vehicles);
+            long constructionStart = System.nanoTime();
+            Solution initial = solver.createInitialSolution();
+            start = System.nanoTime();
+            construction = Long.toString((start - constructionStart) / 1_000_000);
+            solution = solver.tabuSearch(initial, iterations);
+            searchIterations = iterations;
+        } else {
+            DecompositionSolver solver = new DecompositionSolver(customers, vehicles, clusterSize, iterations, threads);
+            start = System.nanoTime();
+            solution = solver.solve();
+            searchIterations = solver.searchIterations();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long peakHeap = peakHeap(heapPools);
+        int routes = 0;
+        int served = 0;
+        for (Vehicle vehicle : solution.vehicles) {
+            if (!vehicle.route.isEmpty()) {
+                routes++;
+                served += vehicle.route.size();
+            }
+        }
+        String row = String.format(Locale.ROOT, "%s,%d,%s,%d,%d,%s,%d,%.1f,%d,%.0f,%d,%d,%d",
+                kind.name().toLowerCase(), size, mode, threads, seed, construction, elapsed / 1_000_000, peakHeap / 1048576.0, searchIterations,
+                searchIterations / (elapsed / 1e9), solution.getTotalDistance(), routes, size - served);
+        System.err.println(row);
+        return row;
+    }
+
+    // Collect garbage and start measuring the peak heap from here
+    static List<MemoryPoolMXBean> resetHeapPeaks() {
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+        System.gc();
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+        return heapPools;
+    }
+
+    static long peakHeap(List<MemoryPoolMXBean> heapPools) {
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        return peakHeap;
+    }
+}
+
+// Regression gate: solves the bundled sample and seeded generated instances with a seeded tabu
+// search and compares distance, routes, unserved customers, time warp, capacity excess,
+// iterations per second and peak heap with a baseline file. --mode record writes the baseline, --mode check (the default) exits with
+// status 1 when a metric is worse than its baseline by more than its tolerance. Quality is
+// compared on a fixed number of iterations, which makes it repeatable on any machine, and a
+// solve still running after --budget-ms is interrupted and fails the gate. Time warp and excess
+// may not rise at all, since the search is meant to keep its routes feasible. solve_ms and
+// iterations per second time the tabu search alone, without construction; they and the heap
+// are measured on the same runs and get relative tolerances because they depend on the machine
+// and the JIT. Every instance is solved --repeats times and the fastest run and lowest heap
+// peak count, which keeps short runs from failing on a single slow one; the repeats must all
+// find the same solution.
+class RegressionGate {
+    static final String HEADER = "instance,customers,seed,iterations,distance,routes,unserved,warp,excess,solve_ms,iterations_per_s,peak_heap_mb";
+
+    // Every solve gets a thread of its own so the budget can cut it off: one that is slow to see
+    // the interrupt cannot hold up the next instance, and being a daemon cannot keep the JVM alive
+    private static ExecutorService solveThread() {
+        return Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "regression-solve");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("mode", "check");
+        options.put("baseline", "regression-baseline.csv");
+        options.put("sizes", "100,400");
+        options.put("kinds", "random,clustered,mixed");
+        options.put("iterations", "2000");
+        options.put("seed", "1");
+        options.put("tightness", "0.2");
+        options.put("capacity", "200");
+        options.put("budget-ms", "60000");
+        options.put("repeats", "5");
+        options.put("distance-tolerance", "0");
+        options.put("route-tolerance", "0");
+        options.put("throughput-tolerance", "0.3");
+        options.put("heap-tolerance", "0.3");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        String mode = options.get("mode");
+        if (!mode.equals("record") && !mode.equals("check")) {
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+
+        int iterations = Integer.parseInt(options.get("iterations"));
+        long seed = Long.parseLong(options.get("seed"));
+        double tightness = Double.parseDouble(options.get("tightness"));
+        int capacity = Integer.parseInt(options.get("capacity"));
+        long budget = Long.parseLong(options.get("budget-ms"));
+        int repeats = Integer.parseInt(options.get("repeats"));
+
+        // Warm the JIT up first so the first instance's throughput is not a cold start
+        measure(new ArrayList<>(), new ArrayList<>(), "warmup", null, seed, iterations, repeats, budget);
+
+        List<String> rows = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        rows.add(HEADER);
+        System.err.println(HEADER);
+        measure(rows, failures, "sample", null, seed, iterations, repeats, budget);
+        for (String kindName : options.get("kinds").split(",")) {
+            InstanceGenerator.Kind kind = InstanceGenerator.Kind.valueOf(kindName.trim().toUpperCase());
+            for (String sizeText : options.get("sizes").split(",")) {
+                int size = Integer.parseInt(sizeText.trim());
+                InstanceGenerator generator = new InstanceGenerator(kind, size, seed, tightness, capacity);
+                measure(rows, failures, kind.name().toLowerCase() + "-" + size, generator, seed, iterations, repeats, budget);
+            }
+        }
+
+        Path baselinePath = Path.of(options.get("baseline"));
+        if (mode.equals("record")) {
+            if (!failures.isEmpty()) {
+                for (String failure : failures) {
+                    System.err.println("REGRESSION " + failure);
+                }
+                System.err.println("Not recording a baseline with solves over budget");
+                System.exit(1);
+            }
+            Files.write(baselinePath, rows);
+            System.err.println("Recorded " + (rows.size() - 1) + " baselines in " + baselinePath);
+            return;
+        }
+        if (!Files.exists(baselinePath)) {
+            throw new IOException("No baseline at " + baselinePath + ", record one with --mode record");
+        }
+        List<String> lines = Files.readAllLines(baselinePath);
+        if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+            throw new IOException("Baseline " + baselinePath + " has other columns, record it again with --mode record");
+        }
+        Map<String, String[]> baseline = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (!line.isBlank()) {
+                String[] fields = line.split(",");
+                baseline.put(fields[0], fields);
+            }
+        }
+
+        for (String row : rows.subList(1, rows.size())) {
+            String[] current = row.split(",");
+            String[] recorded = baseline.get(current[0]);
+            if (recorded == null) {
+                failures.add(current[0] + ": no baseline");
+                continue;
+            }
+            if (!current[1].equals(recorded[1]) || !current[2].equals(recorded[2]) || !current[3].equals(recorded[3])) {
+                failures.add(current[0] + ": baseline was recorded with other customers, seed or iterations");
+                continue;
+            }
+            checkAtMost(failures, current[0], "distance", current[4], recorded[4],
+                    Double.parseDouble(recorded[4]) * (1 + Double.parseDouble(options.get("distance-tolerance"))));
+            checkAtMost(failures, current[0], "routes", current[5], recorded[5],
+                    Double.parseDouble(recorded[5]) + Double.parseDouble(options.get("route-tolerance")));
+            checkAtMost(failures, current[0], "unserved", current[6], recorded[6], Double.parseDouble(recorded[6]));
+            checkAtMost(failures, current[0], "time warp", current[7], recorded[7], Double.parseDouble(recorded[7]));
+            checkAtMost(failures, current[0], "capacity excess", current[8], recorded[8], Double.parseDouble(recorded[8]));
+            checkAtMost(failures, current[0], "peak heap", current[11], recorded[11],
+                    Double.parseDouble(recorded[11]) * (1 + Double.parseDouble(options.get("heap-tolerance"))));
+            double throughput = Double.parseDouble(recorded[10]) * (1 - Double.parseDouble(options.get("throughput-tolerance")));
+            if (Double.parseDouble(current[10]) < throughput) {
+                failures.add(current[0] + ": iterations/s " + current[10] + ", baseline " + recorded[10]);
+            }
+        }
+        for (String failure : failures) {
+            System.err.println("REGRESSION " + failure);
+        }
+        System.err.println(failures.isEmpty() ? "No regressions against " + baselinePath : failures.size() + " regressions");
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkAtMost(List<String> failures, String instance, String metric, String current, String recorded, double limit) {
+        if (Double.parseDouble(current) > limit) {
+            failures.add(instance + ": " + metric + " " + current + ", baseline " + recorded);
+        }
+    }
+
+    // Adds the row of one instance to rows, or to failures that a solve ran over the budget
+    private static void measure(List<String> rows, List<String> failures, String instance, InstanceGenerator generator,
+                                long seed, int iterations, int repeats, long budget) throws InterruptedException {
+        try {
+            rows.add(run(instance, generator, seed, iterations, repeats, budget));
+        } catch (TimeoutException e) {
+            failures.add(instance + ": solve interrupted after the " + budget + " ms budget");
+            System.err.println(instance + ",over budget");
+        }
+    }
+
+    // Solves a fresh copy of the instance (the sample when generator is null) repeats times
+    private static String run(String instance, InstanceGenerator generator, long seed, int iterations, int repeats, long budget)
+            throws InterruptedException, TimeoutException {
+        int size = 0;
+        long elapsed = Long.MAX_VALUE;
+        long peakHeap = Long.MAX_VALUE;
+        String quality = null;
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            List<Customer> customers = generator != null ? generator.customers() : VRPWithTimeWindows.sampleCustomers();
+            List<Vehicle> vehicles = generator != null ? generator.vehicles() : VRPWithTimeWindows.sampleVehicles();
+            size = customers.size();
+            List<MemoryPoolMXBean> heapPools = ScalingHarness.resetHeapPeaks();
+            long[] searchTime = new long[1];
+            int customerCount = size;
+            ExecutorService solving = solveThread();
+            Future<String> solve = solving.submit(() -> {
+                VRPWithTimeWindows solver = new VRPWithTimeWindows(customers, vehicles);
+                solver.setSeed(seed);
+                Solution initial = solver.createInitialSolution();
+                long start = System.nanoTime();
+                Solution best = solver.tabuSearch(initial, iterations);
+                searchTime[0] = System.nanoTime() - start;
+                return best.getTotalDistance() + "," + solver.usedVehicles(best) + "," + (customerCount - solver.servedCustomers(best))
+                        + "," + solver.timeWarp(best) + "," + solver.capacityExcess(best);
+            });
+            String result;
+            try {
+                result = solve.get(budget, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Construction and tabuSearch both stop once interrupted; wait for that so the
+                // abandoned solve does not run alongside the next one
+                solve.cancel(true);
+                solving.shutdown();
+                solving.awaitTermination(budget, TimeUnit.MILLISECONDS);
+                throw e;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(instance + " failed to solve", e.getCause());
+            } finally {
+                solving.shutdownNow();
+            }
+            elapsed = Math.min(elapsed, searchTime[0]);
+            peakHeap = Math.min(peakHeap, ScalingHarness.peakHeap(heapPools));
+
+            if (quality != null && !quality.equals(result)) {
+                throw new IllegalStateException(instance + " is not repeatable: " + quality + " then " + result);
+            }
+            quality = result;
+        }
+        String row = String.format(Locale.ROOT, "%s,%d,%d,%d,%s,%d,%.0f,%.1f",
+                instance, size, seed, iterations, quality, elapsed / 1_000_000, iterations / (elapsed / 1e9), peakHeap / 1048576.0);
+        System.err.println(row);
+        return row;
+    }
+}
+
+// Behaviour checks for the solver on small hand-made instances; run with java SolverChecks,
+// exits with status 1 when one fails.
+class SolverChecks {
+    private static final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) {
+        depotOnlyMoveIsAccepted();
+        depotMoveKeepsLaterStopsOnTime();
+        driverRulesPriceKnownRoutes();
+        breakKeepsShorterOrderOut();
+        searchReusesArena();
+        pairsStayOnOneRouteInOrder();
+        for (String failure : failures) {
+            System.err.println("FAILED " + failure);
+        }
+        System.err.println(failures.isEmpty() ? "All checks passed" : failures.size() + " checks failed");
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            failures.add(description);
+        }
+    }
+
+    // A route served from the far depot can only improve by moving to the near one: the other
+    // vehicle has no capacity, so no customer can leave the route
+    private static void depotOnlyMoveIsAccepted() {
+        Location far = new Location(0, 0);
+        Location near = new Location(100, 100);
+        List<Customer> customers = new ArrayList<>();
+        customers.add(new Customer(1, 5, 0, 1000, 0, new Location(95, 100), false));
+        customers.add(new Customer(2, 5, 0, 1000, 0, new Location(100, 95), false));
+        List<Vehicle> vehicles = new ArrayList<>();
+        vehicles.add(new Vehicle(100, far));
+        vehicles.add(new Vehicle(0, near));
+        VRPWithTimeWindows solver = new VRPWithTimeWindows(customers, vehicles);
+        solver.setSeed(1);
+        vehicles.get(0).route.addAll(customers);
+        Solution best = solver.tabuSearch(new Solution(vehicles), 50);
+        Vehicle moved = best.vehicles.get(0);
+        check(moved.depot.x == near.x && moved.depot.y == near.y, "depot-only move: route stayed at the far depot");
+    }
+
+    // A, B served from (0, 0) cost 200 and reach B at 100. From (100, 10) they cost 190 but
+    // reach B at 180, past its latest arrival of 150, although A is still reached in time.
+    private static void depotMoveKeepsLaterStopsOnTime() {
+        List<Customer> customers = new ArrayList<>();
+        customers.add(new Customer(1, 5, 0, 1000, 0, new Location(10, 0), false));
+        customers.add(new Customer(2, 5, 0, 150, 0, new Location(100, 0), false));
+        List<Vehicle> vehicles = new ArrayList<>();
+        vehicles.add(new Vehicle(100, new Location(0, 0)));
+        vehicles.add(new Vehicle(0, new Location(100, 10)));
+        VRPWithTimeWindows solver = new VRPWithTimeWindows(customers, vehicles);
+        solver.setSeed(1);
+        vehicles.get(0).route.addAll(customers);
+        Solution best = solver.tabuSearch(new Solution(vehicles), 50);
+        check(solver.timeWarp(best) == 0, "depot move: only the first customer's window checked");
+    }
+
+    // One customer 10 out and back: arriving at 10 misses its latest arrival time 5 by 5, and the
+    // route takes 15 once that is pulled back
+    private static void driverRulesPriceKnownRoutes() {
+        check(routeWarp(OPEN_SHIFT, 17) == 5, "max duration: warped time counted as elapsed time");
+        check(routeWarp(OPEN_SHIFT, 12) == 8, "max duration: 3 over the limit not priced");
+        check(routeWarp(12, RouteSegments.OPEN) == 8, "shift end: returning 3 after it not priced");
+    }
+
+    private static final int OPEN_SHIFT = RouteSegments.OPEN;
+
+    private static int routeWarp(int shiftEnd, int maxDuration) {
+        Customer customer = new Customer(1, 1, 0, 5, 0, new Location(10, 0), false);
+        List<Vehicle> vehicles = new ArrayList<>();
+        vehicles.add(new Vehicle(10, new Location(0, 0)));
+        VRPWithTimeWindows solver = new VRPWithTimeWindows(new ArrayList<>(List.of(customer)), vehicles);
+        vehicles.get(0).setShift(0, shiftEnd, maxDuration);
+        vehicles.get(0).route.add(customer);
+        return solver.timeWarp(new Solution(vehicles));
+    }
+
+    // C is to be reached by 40 and a break of 100 is due before 25 of driving is exceeded, so
+    // only routes that go to C first are feasible. Visiting C between A and B is shorter than
+    // the start C, A, B, but takes the break on the way to C; the search has to keep the start.
+    private static void breakKeepsShorterOrderOut() {
+        Customer a = new Customer(1, 1, 0, 1000, 0, new Location(20, 10), false);
+        Customer b = new Customer(2, 1, 0, 1000, 0, new Location(20, -10), false);
+        Customer c = new Customer(3, 1, 0, 40, 0, new Location(30, 0), false);
+        List<Vehicle> vehicles = new ArrayList<>();
+        vehicles.add(new Vehicle(10, new Location(0, 0)));
+        VRPWithTimeWindows solver = new VRPWithTimeWindows(new ArrayList<>(List.of(a, b, c)), vehicles);
+        solver.setSeed(1);
+        vehicles.get(0).setBreak(25, 100);
+        vehicles.get(0).route.addAll(List.of(a, c, b));
+        Solution start = new Solution(vehicles);
+        check(solver.timeWarp(start) == 96, "break: A, C, B not pushed past C's window by the break");
+        vehicles.get(0).route.clear();
+        vehicles.get(0).route.addAll(List.of(c, a, b));
+        check(solver.timeWarp(start) == 0, "break: C, A, B priced infeasible");
+        Solution best = solver.tabuSearch(start, 50);
+        check(best.vehicles.get(0).route.get(0) == c && solver.timeWarp(best) == 0, "break: same-route move into an infeasible order accepted");
+    }
+
+    // Neighbours come from the thread's RouteArena, so once it has grown the search itself
+    // allocates only the telemetry event of every batch. The two runs differ by 2000 iterations
+    // and share everything else; allow a few hundred bytes per iteration for JIT and TLAB noise.
+    private static void searchReusesArena() {
+        InstanceGenerator generator = new InstanceGenerator(InstanceGenerator.Kind.RANDOM, 100, 1, 0.5, 200);
+        VRPWithTimeWindows solver = new VRPWithTimeWindows(generator.customers(), generator.vehicles());
+        Solution start = solver.createInitialSolution();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int warmup = 0; warmup < 3; warmup++) {
+            searchFrom(solver, start, 3000);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        searchFrom(solver, start, 1000);
+        long shortRun = threads.getThreadAllocatedBytes(thread) - before;
+        before = threads.getThreadAllocatedBytes(thread);
+        searchFrom(solver, start, 3000);
+        long longRun = threads.getThreadAllocatedBytes(thread) - before;
+        long perIteration = (longRun - shortRun) / 2000;
+        check(perIteration < 256, "arena: steady-state search allocates " + perIteration + " bytes per iteration");
+    }
+
+    // Four pickup-and-delivery pairs, each delivery a quarter turn round the depot from its pickup,
+    // and four single customers. Construction leaves every route at its last latest arrival time,
+    // 1000 for all of them, so it starts one route per pair or single and routes everyone.
+    private static void pairsStayOnOneRouteInOrder() {
+        List<Customer> customers = new ArrayList<>();
+        int[][] points = { {20, 0}, {0, 20}, {-20, 0}, {0, -20} };
+        for (int p = 0; p < points.length; p++) {
+            Customer pickup = new Customer(2 * p + 1, 10, 0, 1000, 5, new Location(points[p][0], points[p][1]), false);
+            Customer delivery = new Customer(2 * p + 2, 0, 0, 1000, 5, new Location(-points[p][1], points[p][0]), false);
+            pickup.pairWith(delivery);
+            customers.add(pickup);
+            customers.add(delivery);
+        }
+        for (int s = 0; s < 4; s++) {
+            customers.add(new Customer(9 + s, 10, 0, 1000, 5, new Location(10 * s - 15, 15 - 10 * s), false));
+        }
+        List<Vehicle> vehicles = new ArrayList<>();
+        for (int v = 0; v < 8; v++) {
+            vehicles.add(new Vehicle(30, new Location(0, 0)));
+        }
+        VRPWithTimeWindows solver = new VRPWithTimeWindows(customers, vehicles);
+        solver.setSeed(1);
+        Solution start = solver.createInitialSolution();
+        check(solver.servedCustomers(start) == customers.size(), "pairs: construction left customers out");
+        Solution best = solver.tabuSearch(start, 500);
+        check(solver.servedCustomers(best) == customers.size(), "pairs: search lost customers");
+        for (Vehicle vehicle : best.vehicles) {
+            for (int i = 0; i < vehicle.route.size(); i++) {
+                Customer customer = vehicle.route.get(i);
+                if (customer.pair != null) {
+                    int partner = vehicle.route.indexOf(customer.pair);
+                    check(partner >= 0, "pairs: customer " + customer.id + " not on the route of its partner");
+                    check(partner < 0 || customer.pickup == (i < partner), "pairs: delivery " + (customer.pickup ? customer.pair.id : customer.id) + " before its pickup");
+                }
+            }
+        }
+    }
+
+    private static void searchFrom(VRPWithTimeWindows solver, Solution start, int iterations) {
+        Solution copy = new Solution(new ArrayList<>());
+        copy.copyFrom(start);
+        solver.setSeed(1);
+        solver.tabuSearch(copy, iterations);
+    }
+}
+
+// The two loops behind InsertionEvaluator on straight-line distances. ScalarInsertionKernel is
+// the fallback; VectorInsertionKernel.java has the same loops on the incubating Vector API and is
+// picked up when it was compiled and the JVM runs with --add-modules jdk.incubator.vector:
+//   javac --add-modules jdk.incubator.vector VRPWithTimeWindows.java VectorInsertionKernel.java
+interface InsertionKernel {
+    // out[s] = (int) Math.sqrt(dx * dx + dy * dy) between (x, y) and (xs[s], ys[s]), for s < count
+    void distances(int[] xs, int[] ys, int count, int x, int y, int[] out);
+
+    // out[p] = toCustomer[p] + toCustomer[p + 1] - edges[p], for p < count
+    void deltas(int[] toCustomer, int[] edges, int count, int[] out);
+}
+
+class ScalarInsertionKernel implements InsertionKernel {
+    @Override
+    public void distances(int[] xs, int[] ys, int count, int x, int y, int[] out) {
+        for (int s = 0; s < count; s++) {
+            int dx = xs[s] - x;
+            int dy = ys[s] - y;
+            out[s] = (int) Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    @Override
+    public void deltas(int[] toCustomer, int[] edges, int count, int[] out) {
+        for (int p = 0; p < count; p++) {
+            out[p] = toCustomer[p] + toCustomer[p + 1] - edges[p];
+        }
+    }
+}
+
+// Cost of inserting one customer at every position of a route in a single pass. The route is
+// loaded once into primitive arrays (stops with the depot at both ends, their coordinates and
+// the length of every edge); scoring a customer then computes its distance to all stops and
+// the insertion deltas in two branch-free loops of the InsertionKernel. When distances come
+// from a road network instead of coordinates the same deltas are read from the matrix one
+// position at a time. Construction uses the distance loop the other way round, from the end of
+// a route to every customer, see travelFrom.
+class InsertionEvaluator {
+    static final InsertionKernel KERNEL = loadKernel();
+
+    private final DistanceMatrix matrix;
+    private int size;
+    private int[] stops = new int[18];
+    private int[] xs = new int[18];
+    private int[] ys = new int[18];
+    private int[] edges = new int[17];
+    private int[] toCustomer = new int[18];
+    private int[] deltas = new int[17];
+    private int[] customerXs;
+    private int[] customerYs;
+
+    public InsertionEvaluator(DistanceMatrix matrix) {
+        this.matrix = matrix;
+    }
+
+    // The Vector API kernel when its module was added to the JVM and its class is on the class
+    // path, the scalar loops otherwise
+    static InsertionKernel loadKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (InsertionKernel) Class.forName("VectorInsertionKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Not compiled alongside, so fall back
+            }
+        }
+        return new ScalarInsertionKernel();
+    }
+
+    public void load(Vehicle vehicle) {
+        size = vehicle.route.size();
+        if (stops.length < size + 2) {
+            int length = Math.max(size + 2, 2 * stops.length);
+            stops = new int[length];
+            xs = new int[length];
+            ys = new int[length];
+            edges = new int[length - 1];
+            toCustomer = new int[length];
+            deltas = new int[length - 1];
+        }
+        stops[0] = vehicle.depotIndex;
+        for (int i = 0; i < size; i++) {
+            stops[i + 1] = vehicle.route.get(i).index;
+        }
+        stops[size + 1] = vehicle.depotIndex;
+        for (int s = 0; s < size + 2; s++) {
+            xs[s] = matrix.x(stops[s]);
+            ys[s] = matrix.y(stops[s]);
+        }
+        for (int p = 0; p <= size; p++) {
+            edges[p] = matrix.distance(stops[p], stops[p + 1]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // deltas[p] is the cost of inserting customer before route position p (p == size appends);
+    // the array is reused by the next call
+    public int[] score(Customer customer) {
+        int c = customer.index;
+        if (!matrix.isStraightLine()) {
+            for (int p = 0; p <= size; p++) {
+                deltas[p] = matrix.distance(stops[p], c) + matrix.distance(c, stops[p + 1]) - edges[p];
+            }
+            return deltas;
+        }
+        KERNEL.distances(xs, ys, size + 2, matrix.x(c), matrix.y(c), toCustomer);
+        KERNEL.deltas(toCustomer, edges, size + 1, deltas);
+        return deltas;
+    }
+
+    // Straight-line travel from location index from to each of the first customerCount customers,
+    // into out by Customer.index; only for a straight-line matrix
+    public void travelFrom(int from, int customerCount, int[] out) {
+        if (customerXs == null || customerXs.length != customerCount) {
+            customerXs = new int[customerCount];
+            customerYs = new int[customerCount];
+            for (int i = 0; i < customerCount; i++) {
+                customerXs[i] = matrix.x(i);
+                customerYs[i] = matrix.y(i);
+            }
+        }
+        KERNEL.distances(customerXs, customerYs, customerCount, matrix.x(from), matrix.y(from), out);
+    }
+}
+
+// Fleet-size minimisation after Nagata and Braysy: take one route out, park its customers in an
+// ejection pool and put them back one at a time into the remaining routes. A customer that fits
+// nowhere is forced in by ejecting up to two customers from its best position, choosing those
+// whose penalty counters (how often they failed to go back in) add up to the least, and the
+// routes are then perturbed with random relocations. Whenever the pool runs dry the solution
+// is feasible with one route less and goes to the listener. Customers the start leaves out go
+// through the same pool first, allowed into unused vehicles as well, so that every solution
+// handed to the listener serves all customers. Stops when the leftovers or a route cannot be
+// placed within maxIterations insertions, when one route is left, or when interrupted.
+class RouteEliminator implements Runnable {
+    static final int PERTURBATION_MOVES = 20;
+
+    private final DistanceMatrix matrix;
+    private final List<Customer> customers;
+    private final Solution working = new Solution(new ArrayList<>());
+    private final int maxIterations;
+    private final Consumer<Solution> listener;
+    private final int[] penalties;
+    private final ArrayDeque<Customer> pool = new ArrayDeque<>();
+    // Prepared for each vehicle of working and rebuilt only once its route has changed
+    private final RouteSegments[] segments;
+    private final InsertionEvaluator[] insertions;
+    private final boolean[] stale;
+    private final Random random;
+
+    // The routes of start must be feasible, but need not serve every customer; start is copied, so
+    // the caller may keep changing it. Solutions found after the thread is interrupted are
+    // dropped, not handed to the listener.
+    RouteEliminator(DistanceMatrix matrix, List<Customer> customers, Solution start, int maxIterations, Random random,
+                    Consumer<Solution> listener) {
+        this.matrix = matrix;
+        this.customers = customers;
+        this.maxIterations = maxIterations;
+        this.random = random;
+        this.listener = listener;
+        this.penalties = new int[customers.size()];
+        working.copyFrom(start);
+        int vehicleCount = working.vehicles.size();
+        this.segments = new RouteSegments[vehicleCount];
+        this.insertions = new InsertionEvaluator[vehicleCount];
+        this.stale = new boolean[vehicleCount];
+        for (int v = 0; v < vehicleCount; v++) {
+            segments[v] = new RouteSegments();
+            insertions[v] = new InsertionEvaluator(matrix);
+        }
+        Arrays.fill(stale, true);
+    }
+
+    @Override
+    public void run() {
+        int leftovers = poolLeftovers();
+        if (leftovers < 0) {
+            return;
+        }
+        if (leftovers > 0) {
+            if (!emptyPool(true) || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            Solution complete = new Solution(new ArrayList<>());
+            complete.copyFrom(working);
+            listener.accept(complete);
+        }
+        Solution feasible = new Solution(new ArrayList<>());
+        feasible.copyFrom(working);
+        while (!Thread.currentThread().isInterrupted() && usedRoutes() > 1) {
+            PhaseEvent phase = new PhaseEvent(PhaseEvent.ROUTE_ELIMINATION, penalties.length);
+            phase.begin();
+            boolean eliminated = eliminateRoute();
+            phase.commit();
+            if (!eliminated) {
+                working.copyFrom(feasible);
+                Arrays.fill(stale, true);
+                return;
+            }
+            feasible.copyFrom(working);
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            Solution smaller = new Solution(new ArrayList<>());
+            smaller.copyFrom(working);
+            listener.accept(smaller);
+        }
+    }
+
+    private boolean eliminateRoute() {
+        // The ejection pool moves single customers, so routes with pickup-and-delivery pairs stay
+        List<Integer> used = new ArrayList<>();
+        for (int v = 0; v < working.vehicles.size(); v++) {
+            List<Customer> route = working.vehicles.get(v).route;
+            if (!route.isEmpty() && route.stream().allMatch(customer -> customer.pair == null)) {
+                used.add(v);
+            }
+        }
+        if (used.isEmpty()) {
+            return false;
+        }
+        int removed = used.get(random.nextInt(used.size()));
+        pool.clear();
+        pool.addAll(working.vehicles.get(removed).route);
+        working.vehicles.get(removed).route.clear();
+        stale[removed] = true;
+        Arrays.fill(penalties, 1);
+        return emptyPool(false);
+    }
+
+    // Fill the pool with the customers no route of the start serves and return how many there
+    // are, or -1 when one of them is half of a pickup-and-delivery pair, which the pool cannot move
+    private int poolLeftovers() {
+        boolean[] routed = new boolean[customers.size()];
+        for (Vehicle vehicle : working.vehicles) {
+            for (Customer customer : vehicle.route) {
+                routed[customer.index] = true;
+            }
+        }
+        pool.clear();
+        for (Customer customer : customers) {
+            if (!routed[customer.index]) {
+                if (customer.pair != null) {
+                    return -1;
+                }
+                pool.addLast(customer);
+            }
+        }
+        Arrays.fill(penalties, 1);
+        return pool.size();
+    }
+
+    // Put the pool back into the routes, ejecting where nothing fits; false when that takes more
+    // than maxIterations insertions or the thread is interrupted. openRoutes lets customers start
+    // routes in vehicles not in use.
+    private boolean emptyPool(boolean openRoutes) {
+        for (int iteration = 0; !pool.isEmpty(); iteration++) {
+            if (iteration >= maxIterations || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            Customer customer = pool.pollLast();
+            if (insertCheapest(customer, openRoutes)) {
+                continue;
+            }
+            penalties[customer.index]++;
+            if (!insertByEjection(customer)) {
+                pool.addFirst(customer);
+            }
+            perturb();
+        }
+        return true;
+    }
+
+    // Cheapest feasible position in any route still in use, or in any vehicle with openRoutes
+    private boolean insertCheapest(Customer customer, boolean openRoutes) {
+        int bestVehicle = -1;
+        int bestPosition = -1;
+        int bestDelta = Integer.MAX_VALUE;
+        for (int v = 0; v < working.vehicles.size(); v++) {
+            Vehicle vehicle = working.vehicles.get(v);
+            if (vehicle.route.isEmpty() && !openRoutes) {
+                continue;
+            }
+            RouteSegments route = prepared(v);
+            if (route.load + customer.demand > vehicle.capacity) {
+                continue;
+            }
+            // Score every position at once and only check time windows where the cost would win
+            int[] deltas = insertions[v].score(customer);
+            for (int p = 0; p <= route.size(); p++) {
+                if (deltas[p] < bestDelta && route.warpWith(p, customer, p) == 0) {
+                    bestVehicle = v;
+                    bestPosition = p;
+                    bestDelta = deltas[p];
+                }
+            }
+        }
+        if (bestVehicle < 0) {
+            return false;
+        }
+        working.vehicles.get(bestVehicle).route.add(bestPosition, customer);
+        stale[bestVehicle] = true;
+        return true;
+    }
+
+    // Insert customer after ejecting one or two customers (q1 == q2 ejects one) with the least
+    // penalty sum; the ejected customers go back to the pool. Segments are built once per route
+    // and every ejection and insertion position is priced by concatenating pieces of it.
+    private boolean insertByEjection(Customer customer) {
+        int bestVehicle = -1;
+        int bestPosition = -1;
+        int bestQ1 = -1;
+        int bestQ2 = -1;
+        int bestSum = Integer.MAX_VALUE;
+        for (int v = 0; v < working.vehicles.size(); v++) {
+            Vehicle vehicle = working.vehicles.get(v);
+            List<Customer> route = vehicle.route;
+            if (route.isEmpty()) {
+                continue;
+            }
+            RouteSegments segments = prepared(v);
+            int size = route.size();
+            for (int q1 = 0; q1 < size; q1++) {
+                for (int q2 = q1; q2 < size; q2++) {
+                    int sum = penalties[route.get(q1).index] + (q2 > q1 ? penalties[route.get(q2).index] : 0);
+                    if (sum >= bestSum || route.get(q1).pair != null || route.get(q2).pair != null) {
+                        continue;
+                    }
+                    int ejected = route.get(q1).demand + (q2 > q1 ? route.get(q2).demand : 0);
+                    if (segments.load - ejected + customer.demand > vehicle.capacity) {
+                        continue;
+                    }
+                    // p runs over the route positions that stay: insert before stop p, or at the end
+                    for (int p = 0; p <= size; p++) {
+                        if (p == q1 || p == q2 || warpWithEjection(segments, q1, q2, customer, p) != 0) {
+                            continue;
+                        }
+                        bestVehicle = v;
+                        bestPosition = p < q1 ? p : p < q2 ? p - 1 : p - (q2 > q1 ? 2 : 1);
+                        bestQ1 = q1;
+                        bestQ2 = q2;
+                        bestSum = sum;
+                        break;
+                    }
+                }
+            }
+        }
+        if (bestVehicle < 0) {
+            return false;
+        }
+        List<Customer> route = working.vehicles.get(bestVehicle).route;
+        if (bestQ2 > bestQ1) {
+            pool.addLast(route.remove(bestQ2));
+        }
+        pool.addLast(route.remove(bestQ1));
+        route.add(bestPosition, customer);
+        stale[bestVehicle] = true;
+        return true;
+    }
+
+    // Time warp of the route in segments without stops q1 and q2 and with customer before stop p
+    private static int warpWithEjection(RouteSegments segments, int q1, int q2, Customer customer, int p) {
+        if (p < q1) {
+            segments.startAt(p);
+            segments.then(customer);
+            segments.then(p, q1);
+            segments.then(q1 + 1, q2);
+        } else if (p < q2) {
+            segments.startAt(q1);
+            segments.then(q1 + 1, p);
+            segments.then(customer);
+            segments.then(p, q2);
+        } else {
+            segments.startAt(q1);
+            segments.then(q1 + 1, q2);
+            segments.then(q2 + 1, p);
+            segments.then(customer);
+            return segments.endWith(p);
+        }
+        return segments.endWith(q2 + 1);
+    }
+
+    // Random feasible relocations between routes in use, to get out of the current neighbourhood
+    private void perturb() {
+        List<Vehicle> vehicles = working.vehicles;
+        for (int move = 0; move < PERTURBATION_MOVES; move++) {
+            int fromIndex = random.nextInt(vehicles.size());
+            int toIndex = random.nextInt(vehicles.size());
+            Vehicle from = vehicles.get(fromIndex);
+            Vehicle to = vehicles.get(toIndex);
+            // Emptying a route would bring it back into use later, so singletons stay put
+            if (from == to || from.route.size() < 2 || to.route.isEmpty()) {
+                continue;
+            }
+            int position = random.nextInt(from.route.size());
+            Customer customer = from.route.get(position);
+            if (customer.pair != null) {
+                continue;
+            }
+            if (prepared(fromIndex).warpWithout(position, position + 1) != 0) {
+                continue;
+            }
+            RouteSegments target = prepared(toIndex);
+            if (target.load + customer.demand > to.capacity) {
+                continue;
+            }
+            int start = random.nextInt(target.size() + 1);
+            for (int k = 0; k <= target.size(); k++) {
+                int p = (start + k) % (target.size() + 1);
+                if (target.warpWith(p, customer, p) == 0) {
+                    from.route.remove(position);
+                    to.route.add(p, customer);
+                    stale[fromIndex] = true;
+                    stale[toIndex] = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    // Segments of working's vehicle v, with its insertion evaluator loaded, rebuilt if stale
+    private RouteSegments prepared(int v) {
+        if (stale[v]) {
+            Vehicle vehicle = working.vehicles.get(v);
+            segments[v].build(vehicle, matrix);
+            insertions[v].load(vehicle);
+            stale[v] = false;
+        }
+        return segments[v];
+    }
+
+    private int usedRoutes() {
+        int used = 0;
+        for (Vehicle vehicle : working.vehicles) {
+            if (!vehicle.route.isEmpty()) {
+                used++;
+            }
+        }
+        return used;
+    }
+}
+
+// Just enough JSON for the solve endpoint: objects become maps, arrays lists and numbers doubles
+class Json {
+    private final String text;
+    private int position;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    public static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.position != text.length()) {
+            throw json.error("Trailing characters");
+        }
+        return value;
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw error("Unexpected end of input");
+        }
+        char c = text.charAt(position);
+        if (c == '{') {
+            Map<String, Object> object = new LinkedHashMap<>();
+            position++;
+            skipWhitespace();
+            if (peek('}')) {
+                return object;
+            }
+            do {
+                skipWhitespace();
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                object.put(key, value());
+                skipWhitespace();
+            } while (peek(','));
+            expect('}');
+            return object;
+        }
+        if (c == '[') {
+            List<Object> array = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            if (peek(']')) {
+                return array;
+            }
+            do {
+                array.add(value());
+                skipWhitespace();
+            } while (peek(','));
+            expect(']');
+            return array;
+        }
+        if (c == '"') {
+            return string();
+        }
+        for (String literal : new String[] { "true", "false", "null" }) {
+            if (text.startsWith(literal, position)) {
+                position += literal.length();
+                return literal.equals("null") ? null : Boolean.valueOf(literal);
+            }
+        }
+        int start = position;
+        while (position < text.length() && "+-.eE0123456789".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        try {
+            return Double.valueOf(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder builder = new StringBuilder();
+        while (position < text.length() && text.charAt(position) != '"') {
+            char c = text.charAt(position++);
+            if (c == '\\' && position < text.length()) {
+                char escaped = text.charAt(position++);
+                if (escaped == 'u' && position + 4 <= text.length()) {
+                    builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    position += 4;
+                } else {
+                    builder.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped);
+                }
+            } else {
+                builder.append(c);
+            }
+        }
+        expect('"');
+        return builder.toString();
+    }
+
+    private boolean peek(char c) {
+        if (position < text.length() && text.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!peek(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
+
+// Embedded HTTP front end for the solver.
+//   POST /solve      instance as JSON, answers 202 with a job id, 400 when the instance is invalid,
+//                    or 429 when the queue is full
+//   GET  /jobs/{id}  status and the best solution found so far
+// Solves run on a fixed pool behind a bounded queue. Identical request bodies that arrive while a
+// solve for them is still queued or running share that job instead of starting another one.
+//
+// Instance format:
+//   {"iterations": 1000,
+//    "customers": [{"id": 1, "demand": 10, "earliest": 0, "latest": 230, "service": 10, "x": 35, "y": 35}, ...],
+//    "vehicles": [{"capacity": 200, "depot": {"x": 0, "y": 0}}, ...]}
+// A pickup names the id of its delivery in an optional "delivery" field; see Customer.pairWith.
+class SolveServer {
+    static final int MAX_FINISHED_JOBS = 1000;
+    static final int MAX_BODY_BYTES = 8 << 20;
+
+    enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    static class Job {
+        final String id;
+        volatile Status status = Status.QUEUED;
+        volatile String best = "null";
+        volatile String error;
+
+        Job(String id) {
+            this.id = id;
+        }
+
+        // Called from the worker thread whenever the search finds a new best solution
+        void publish(Solution solution, int distance) {
+            StringBuilder json = new StringBuilder("{\"distance\": ").append(distance).append(", \"routes\": [");
+            boolean firstRoute = true;
+            for (Vehicle vehicle : solution.vehicles) {
+                if (vehicle.route.isEmpty()) {
+                    continue;
+                }
+                json.append(firstRoute ? "[" : ", [");
+                for (int i = 0; i < vehicle.route.size(); i++) {
+                    json.append(i > 0 ? ", " : "").append(vehicle.route.get(i).id);
+                }
+                json.append(']');
+                firstRoute = false;
+            }
+            best = json.append("]}").toString();
+        }
+
+        String toJson() {
+            return "{\"id\": \"" + id + "\", \"status\": \"" + status + "\", \"best\": " + best
+                    + (error != null ? ", \"error\": \"" + escape(error) + "\"" : "") + "}";
+        }
+    }
+
+    private final ThreadPoolExecutor workers;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Map<String, Job> active = new ConcurrentHashMap<>();
+    private final Queue<String> finished = new ConcurrentLinkedQueue<>();
+    private HttpServer server;
+
+    public SolveServer(int threads, int queueCapacity) {
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Port 0 picks a free port, see port()
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/solve", this::handleSolve);
+        server.createContext("/jobs/", this::handleJob);
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdown();
+        workers.shutdownNow();
+    }
+
+    // Returns the job solving this body, or null when the queue is full. The job is registered and
+    // queued inside compute, which holds off a duplicate of the same body until then, so a duplicate
+    // is only ever handed a job that can be looked up and will run
+    // Throws IllegalArgumentException when the body is not a valid instance, before anything is queued
+    public Job submit(String body) {
+        Request request = parse(body);
+        String key = digest(body);
+        Job job = new Job(key + "-" + System.nanoTime());
+        return active.compute(key, (k, existing) -> {
+            if (existing != null) {
+                return existing;
+            }
+            jobs.put(job.id, job);
+            try {
+                workers.execute(() -> run(job, key, request));
+            } catch (RejectedExecutionException e) {
+                jobs.remove(job.id);
+                return null;
+            }
+            return job;
+        });
+    }
+
+    public Job job(String id) {
+        return jobs.get(id);
+    }
+
+    private static class Request {
+        final List<Customer> customers = new ArrayList<>();
+        final List<Vehicle> vehicles = new ArrayList<>();
+        int iterations = 1000;
+    }
+
+    // Decode and validate the whole instance, so that a body the solver cannot work on is answered
+    // with 400 instead of being queued and failing on a worker
+    private static Request parse(String body) {
+        Map<String, Object> object = asObject(Json.parse(body));
+        if (object == null) {
+            throw new IllegalArgumentException("Instance must be an object");
+        }
+        Request request = new Request();
+        Map<Integer, Customer> byId = new HashMap<>();
+        for (Object entry : array(object, "customers")) {
+            Map<String, Object> c = asObject(entry);
+            Customer customer = new Customer(number(c, "id"), number(c, "demand"), number(c, "earliest"), number(c, "latest"),
+                    number(c, "service"), new Location(number(c, "x"), number(c, "y")), false);
+            if (byId.put(customer.id, customer) != null) {
+                throw new IllegalArgumentException("Duplicate customer id " + customer.id);
+            }
+            if (customer.demand < 0 || customer.serving_time < 0 || customer.latest_arrival_time < customer.earliest_arrival_time) {
+                throw new IllegalArgumentException("Customer " + customer.id + " has a negative demand or service time or an empty window");
+            }
+            request.customers.add(customer);
+        }
+        List<Object> customerEntries = array(object, "customers");
+        for (int i = 0; i < customerEntries.size(); i++) {
+            Map<String, Object> c = asObject(customerEntries.get(i));
+            if (!c.containsKey("delivery")) {
+                continue;
+            }
+            Customer pickup = request.customers.get(i);
+            Customer delivery = byId.get(number(c, "delivery"));
+            if (delivery == null || delivery == pickup || delivery.pair != null || pickup.pair != null) {
+                throw new IllegalArgumentException("Customer " + pickup.id + " has an unknown or already paired delivery");
+            }
+            pickup.pairWith(delivery);
+        }
+        for (Object entry : array(object, "vehicles")) {
+            Map<String, Object> v = asObject(entry);
+            Map<String, Object> depot = asObject(v.get("depot"));
+            if (depot == null) {
+                throw new IllegalArgumentException("Vehicle without a depot");
+            }
+            Vehicle vehicle = new Vehicle(number(v, "capacity"), new Location(number(depot, "x"), number(depot, "y")));
+            if (vehicle.capacity < 0) {
+                throw new IllegalArgumentException("Negative vehicle capacity");
+            }
+            request.vehicles.add(vehicle);
+        }
+        if (request.vehicles.isEmpty()) {
+            throw new IllegalArgumentException("Instance has no vehicles");
+        }
+        if (object.containsKey("iterations")) {
+            request.iterations = number(object, "iterations");
+            if (request.iterations < 0) {
+                throw new IllegalArgumentException("Negative iteration count");
+            }
+        }
+        return request;
+    }
+
+    private void run(Job job, String key, Request request) {
+        job.status = Status.RUNNING;
+        try {
+            VRPWithTimeWindows solver = new VRPWithTimeWindows(request.customers, request.vehicles);
+            solver.setImprovementListener(best -> job.publish(best, solver.totalDistance(best)));
+            Solution best = solver.tabuSearch(solver.createInitialSolution(), request.iterations);
+            job.publish(best, solver.totalDistance(best));
+            job.status = Status.DONE;
+        } catch (RuntimeException e) {
+            job.error = String.valueOf(e.getMessage());
+            job.status = Status.FAILED;
+        } finally {
+            active.remove(key, job);
+            finished.add(job.id);
+            while (finished.size() > MAX_FINISHED_JOBS) {
+                jobs.remove(finished.poll());
+            }
+        }
+    }
+
+    private void handleSolve(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "{\"error\": \"POST an instance\"}");
+            return;
+        }
+        byte[] bytes = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        if (bytes.length > MAX_BODY_BYTES) {
+            respond(exchange, 413, "{\"error\": \"Instance larger than " + MAX_BODY_BYTES + " bytes\"}");
+            return;
+        }
+        String body = new String(bytes, StandardCharsets.UTF_8);
+        Job job;
+        try {
+            job = submit(body);
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "{\"error\": \"Malformed instance: " + escape(String.valueOf(e.getMessage())) + "\"}");
+            return;
+        } catch (ClassCastException e) {
+            respond(exchange, 400, "{\"error\": \"Malformed instance\"}");
+            return;
+        }
+        if (job == null) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 429, "{\"error\": \"Solver queue is full\"}");
+            return;
+        }
+        respond(exchange, 202, job.toJson());
+    }
+
+    private void handleJob(HttpExchange exchange) throws IOException {
+        Job job = job(exchange.getRequestURI().getPath().substring("/jobs/".length()));
+        if (job == null) {
+            respond(exchange, 404, "{\"error\": \"Unknown job\"}");
+            return;
+        }
+        respond(exchange, 200, job.toJson());
+    }
+
+    private void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String digest(String body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object value) {
+        return (List<Object>) value;
+    }
+
+    private static List<Object> array(Map<String, Object> object, String key) {
+        List<Object> value = asList(object.get(key));
+        if (value == null) {
+            throw new IllegalArgumentException("Missing array \"" + key + "\"");
+        }
+        return value;
+    }
+
+    private static int number(Map<String, Object> object, String key) {
+        Object value = object != null ? object.get(key) : null;
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException("Missing number \"" + key + "\"");
+        }
+        return ((Double) value).intValue();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        SolveServer server = new SolveServer(Runtime.getRuntime().availableProcessors(), 64);
+        server.start(port);
+        System.out.println("Solver listening on http://localhost:" + server.port());
+    }
+}
+
+// In-process client for the solve endpoint, mainly for trying the server locally
+class SolveClient {
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final URI base;
+
+    public SolveClient(int port) {
+        this.base = URI.create("http://localhost:" + port);
+    }
+
+    // Returns the job JSON, or null when the server pushed back
+    public String submit(String instanceJson) throws IOException, InterruptedException {
+        HttpResponse<String> response = http.send(HttpRequest.newBuilder(base.resolve("/solve"))
+                .POST(HttpRequest.BodyPublishers.ofString(instanceJson)).build(), HttpResponse.BodyHandlers.ofString());
+        return response.statusCode() == 202 ? response.body() : null;
+    }
+
+    public String poll(String jobId) throws IOException, InterruptedException {
+        return http.send(HttpRequest.newBuilder(base.resolve("/jobs/" + jobId)).GET().build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
+
+public class VRPWithTimeWindows {
+    private List<Customer> customers;
+    private List<Vehicle> vehicles;
+    private DistanceMatrix matrix;
+    private CompatibilityGraph compatibility;
+    private MovePruner pruner;
+    private PenaltyWeights penalties;
+    private GuidedPenalties guided;
+    // Only set when some customers are pickup-and-delivery pairs
+    private RouteLoads loads1;
+    private RouteLoads loads2;
+    private final RouteSegments segments1 = new RouteSegments();
+    private final RouteSegments segments2 = new RouteSegments();
+    private final RouteSegments shiftSegments = new RouteSegments();
+    private Consumer<Solution> improvementListener;
+    // Smaller-fleet solutions published by a RouteEliminator, picked up by the tabu search
+    // Replaced for every run, so a stale eliminator can only write to the one of a run that is over
+    private AtomicReference<Solution> fleetOffer = new AtomicReference<>();
+    private volatile boolean fleetFirst;
+    // Moves whose objective the neighbourhoods actually computed, pruned ones not counted, for the
+    // iteration batch events
+    private long movesEvaluated;
+    // Customers the last createInitialSolution could not place; reported by the callers that print
+    private int unrouted;
+    // Picks the routes each neighbourhood works on
+    private Random random = new Random();
+    // Recently used route schedules, keyed by route signature, for time-dependent travel
+    private final Map<Long, RouteSchedule> schedules = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RouteSchedule> eldest) {
+            return size() > 256;
+        }
+    };
+
+
+    public VRPWithTimeWindows(List<Customer> customers, List<Vehicle> vehicles) {
+        this(customers, vehicles, null);
+    }
+
+    public VRPWithTimeWindows(List<Customer> customers, List<Vehicle> vehicles, RoadNetwork network) {
+        this.customers = customers;
+        this.vehicles = vehicles;
+        for (int i = 0; i < customers.size(); i++) {
+            customers.get(i).index = i;
+        }
+        // Every distinct depot location gets its own index after the customers
+        List<Location> depots = new ArrayList<>();
+        for (Vehicle vehicle : vehicles) {
+            int depot = 0;
+            while (depot < depots.size() && (depots.get(depot).x != vehicle.depot.x || depots.get(depot).y != vehicle.depot.y)) {
+                depot++;
+            }
+            if (depot == depots.size()) {
+                depots.add(vehicle.depot);
+            }
+            vehicle.depotIndex = customers.size() + depot;
+        }
+        this.matrix = new DistanceMatrix(customers, depots, network);
+        this.compatibility = CompatibilityGraph.build(customers, matrix);
+        this.pruner = new MovePruner(compatibility);
+        if (customers.stream().anyMatch(customer -> customer.pair != null)) {
+            this.loads1 = new RouteLoads(customers.size());
+            this.loads2 = new RouteLoads(customers.size());
+        }
+    }
+
+    // Called with the new best solution whenever the tabu search improves on it
+    public void setImprovementListener(Consumer<Solution> improvementListener) {
+        this.improvementListener = improvementListener;
+    }
+
+    // Search through infeasible space with the weighted objective instead of refusing violations
+    public void setPenalties(PenaltyWeights penalties) {
+        if (penalties != null && matrix.isTimeDependent()) {
+            throw new IllegalStateException("Penalised search prices time warp on static travel times and cannot be combined with traffic");
+        }
+        this.penalties = penalties;
+    }
+
+    // Escape local optima with Guided Local Search: arcs that keep showing up in local optima are
+    // penalised and moves are priced with the augmented costs; 0 switches it off
+    public void setGuidedLocalSearch(double alpha) {
+        this.guided = alpha > 0 ? new GuidedPenalties(matrix, customers.size() + matrix.depotCount(), alpha) : null;
+    }
+
+    // Repeat the same search on every run: with a seed, the tabu search makes the same choices and
+    // finds the same solutions (the RouteEliminator thread of solveWithRouteElimination does not)
+    public void setSeed(long seed) {
+        this.random = new Random(seed);
+    }
+
+    // Switch to time-dependent travel times; the compatibility graph is rebuilt to match
+    public void setTraffic(TrafficModel traffic) {
+        if (traffic != null && penalties != null) {
+            throw new IllegalStateException("Penalised search prices time warp on static travel times and cannot be combined with traffic");
+        }
+        if (traffic != null) {
+            requireNoDriverRules();
+        }
+        matrix.setTraffic(traffic);
+        this.compatibility = CompatibilityGraph.build(customers, matrix);
+        this.pruner = new MovePruner(compatibility);
+        schedules.clear();
+    }
+
+    // Driver rules are checked through RouteSegments, which concatenate static travel times; rules
+    // set on a vehicle after setTraffic are caught when the search starts
+    private void requireNoDriverRules() {
+        for (Vehicle vehicle : vehicles) {
+            if (vehicle.hasShiftLimits()) {
+                throw new IllegalStateException("Driver rules are checked on static travel times and cannot be combined with traffic");
+            }
+        }
+    }
+
+    private int calculateArrivalTime(Vehicle vehicle, Customer customer) {
+        return Math.max(customer.earliest_arrival_time, matrix.arrivalTime(lastIndex(vehicle), customer.index, lastDeparture(vehicle)));
+    }
+
+    // Where construction leaves a route from and when: its last customer at that customer's
+    // latest arrival time, or the depot at 0
+    private static int lastIndex(Vehicle vehicle) {
+        return vehicle.route.isEmpty() ? vehicle.depotIndex : vehicle.route.get(vehicle.route.size() - 1).index;
+    }
+
+    private static int lastDeparture(Vehicle vehicle) {
+        return vehicle.route.isEmpty() ? 0 : vehicle.route.get(vehicle.route.size() - 1).latest_arrival_time;
+    }
+    
+    public void solve() {
+        Solution start = createInitialSolution();
+        printUnrouted();
+        Solution bestSolution = tabuSearch(start, 10);
+
+        // Print the best solution
+        printSolution(bestSolution);
+    }
+
+    // Minimise the number of routes first and distance second: a RouteEliminator removes routes on
+    // its own thread while the tabu search optimises distance, and whenever it publishes a solution
+    // with fewer routes, or one serving customers the start could not place, the search continues
+    // from there
+    public Solution solveWithRouteElimination(int maxIterations, int eliminationIterations) {
+        if (matrix.isTimeDependent()) {
+            throw new IllegalStateException("Route elimination checks time windows on static travel times and cannot be combined with traffic");
+        }
+        Solution start = createInitialSolution();
+        AtomicReference<Solution> offers = new AtomicReference<>();
+        fleetOffer = offers;
+        fleetFirst = true;
+        Thread eliminator = new Thread(new RouteEliminator(matrix, customers, start, eliminationIterations,
+                new Random(random.nextLong()), offers::set), "route-elimination");
+        eliminator.setDaemon(true);
+        eliminator.start();
+        try {
+            return tabuSearch(start, maxIterations);
+        } finally {
+            eliminator.interrupt();
+            fleetOffer = new AtomicReference<>();
+            fleetFirst = false;
+        }
+    }
+
+    // Improve currentSolution in place and return a separate copy of the best solution seen
+    public Solution tabuSearch(Solution currentSolution, int maxIterations) {
+        if (matrix.isTimeDependent()) {
+            requireNoDriverRules();
+        }
+        RouteArena arena = RouteArena.get();
+        // The caller may have changed the routes since any totals were cached on them
+        currentSolution.costsKnown = false;
+        Solution bestSolution = new Solution(new ArrayList<>());
+        bestSolution.copyFrom(currentSolution);
+
+        int iteration = 0;
+        int tabuSize = 10;
+        long[] tabuList = new long[tabuSize];
+        int tabuCount = 0;
+        // Neighbourhoods are sampled from random vehicle pairs, so a local optimum is declared after
+        // as many non-improving iterations as there are vehicles
+        int stalled = 0;
+        PhaseEvent phase = new PhaseEvent(PhaseEvent.LOCAL_SEARCH, customers.size());
+        phase.begin();
+        IterationBatchEvent batch = new IterationBatchEvent();
+        batch.begin();
+        long batchMoves = movesEvaluated;
+
+        // An interrupt (e.g. SolveServer shutting down) ends the search with the best found so far
+        while (iteration < maxIterations && !Thread.currentThread().isInterrupted()) {
+            arena.reset();
+            Solution offer = fleetOffer.getAndSet(null);
+            if (offer != null && (servedCustomers(offer) > servedCustomers(currentSolution)
+                    || servedCustomers(offer) == servedCustomers(currentSolution) && usedVehicles(offer) < usedVehicles(currentSolution))) {
+                currentSolution.copyFrom(offer);
+                currentSolution.costsKnown = false;
+                if (isBetter(currentSolution, bestSolution)) {
+                    bestSolution.copyFrom(currentSolution);
+                    publishImprovement(bestSolution, iteration);
+                }
+            }
+            Solution neighborhoodSolution = penalties != null
+                    ? generatePenalizedNeighborhood(currentSolution) : generateNeighborhood(currentSolution);
+
+            if (neighborhoodSolution != null && !isTabu(tabuList, tabuCount, neighborhoodSolution.signature())
+                    && objective(neighborhoodSolution) < objective(currentSolution)
+                    && (!fleetFirst || usedVehicles(neighborhoodSolution) <= usedVehicles(currentSolution))) {
+                // The neighbour lives in the arena, so keep our own copy of it
+                currentSolution.copyFrom(neighborhoodSolution);
+                stalled = 0;
+                batch.accepted++;
+
+                if (isBetter(currentSolution, bestSolution)) {
+                    bestSolution.copyFrom(currentSolution);
+                    publishImprovement(bestSolution, iteration);
+                }
+            } else if (guided != null && ++stalled >= currentSolution.vehicles.size()) {
+                PhaseEvent perturbation = new PhaseEvent(PhaseEvent.PERTURBATION, customers.size());
+                perturbation.begin();
+                guided.penalize(currentSolution);
+                perturbation.commit();
+                // Augmented costs changed under both
+                currentSolution.costsKnown = false;
+                bestSolution.costsKnown = false;
+                stalled = 0;
+            }
+
+            tabuList[tabuCount % tabuSize] = currentSolution.signature();
+            tabuCount++;
+            if (penalties != null) {
+                knownCosts(currentSolution);
+                penalties.adapt(currentSolution.excess == 0, currentSolution.warp == 0);
+            }
+
+            iteration++;
+            batch.iterations++;
+            if (batch.iterations == SearchTelemetry.BATCH_ITERATIONS || iteration == maxIterations) {
+                if (batch.shouldCommit()) {
+                    batch.firstIteration = iteration - batch.iterations;
+                    batch.bestCost = objective(bestSolution);
+                    batch.currentCost = objective(currentSolution);
+                    batch.movesEvaluated = movesEvaluated - batchMoves;
+                    batch.acceptanceRate = (double) batch.accepted / batch.iterations;
+                    batch.commit();
+                }
+                batch = new IterationBatchEvent();
+                batch.begin();
+                batchMoves = movesEvaluated;
+            }
+        }
+
+        phase.commit();
+        return bestSolution;
+    }
+
+    private void publishImprovement(Solution bestSolution, int iteration) {
+        if (improvementListener != null) {
+            improvementListener.accept(bestSolution);
+        }
+        ImprovementEvent event = new ImprovementEvent();
+        if (event.shouldCommit()) {
+            event.iteration = iteration;
+            event.cost = objective(bestSolution);
+            event.distance = totalDistance(bestSolution);
+            event.routes = usedVehicles(bestSolution);
+            event.commit();
+        }
+    }
+
+    // What the search minimises; isBetter still compares solutions on their real cost. The
+    // penalised search reads the totals cached on the solution, so it costs O(1) per call.
+    private double objective(Solution solution) {
+        if (penalties != null) {
+            knownCosts(solution);
+            return (guided != null ? solution.augmented : solution.distance) + cachedViolationCost(solution);
+        }
+        return guided != null ? augmentedDistance(solution) : totalDistance(solution);
+    }
+
+    // With penalties a feasible solution always beats an infeasible one; while a route eliminator
+    // runs, serving more customers beats fewer routes, which beat less distance
+    private boolean isBetter(Solution candidate, Solution best) {
+        if (fleetFirst && servedCustomers(candidate) != servedCustomers(best)) {
+            return servedCustomers(candidate) > servedCustomers(best);
+        }
+        if (penalties != null) {
+            knownCosts(candidate);
+            knownCosts(best);
+            boolean candidateFeasible = candidate.excess == 0 && candidate.warp == 0;
+            boolean bestFeasible = best.excess == 0 && best.warp == 0;
+            if (candidateFeasible != bestFeasible) {
+                return candidateFeasible;
+            }
+            if (fleetFirst && candidate.routes != best.routes) {
+                return candidate.routes < best.routes;
+            }
+            return candidate.distance + cachedViolationCost(candidate) < best.distance + cachedViolationCost(best);
+        }
+        if (fleetFirst && usedVehicles(candidate) != usedVehicles(best)) {
+            return usedVehicles(candidate) < usedVehicles(best);
+        }
+        return totalDistance(candidate) < totalDistance(best);
+    }
+
+    // Work the penalised search's totals out from the routes, once per solution it starts from
+    private void knownCosts(Solution solution) {
+        if (!solution.costsKnown) {
+            solution.distance = totalDistance(solution);
+            solution.augmented = augmentedDistance(solution);
+            solution.excess = capacityExcess(solution);
+            solution.warp = timeWarp(solution);
+            solution.routes = usedVehicles(solution);
+            solution.costsKnown = true;
+        }
+    }
 
-public class VRPWithTimeWindows {
-    private List<Customer> customers;
-    private List<Vehicle> vehicles;
+    private double cachedViolationCost(Solution solution) {
+        return penalties.capacity * solution.excess + penalties.timeWarp * solution.warp + penalties.vehicle * solution.routes;
+    }
 
+    public double penalizedCost(Solution solution) {
+        return totalDistance(solution) + violationCost(solution);
+    }
 
-    public VRPWithTimeWindows(List<Customer> customers, List<Vehicle> vehicles) {
-        this.customers = customers;
-        this.vehicles = vehicles;
+    private double violationCost(Solution solution) {
+        return penalties.capacity * capacityExcess(solution) + penalties.timeWarp * timeWarp(solution)
+                + penalties.vehicle * usedVehicles(solution);
     }
-    private int calculateArrivalTime(Vehicle vehicle, Customer customer) {
-        int travelTime = 0;
-        if (!vehicle.route.isEmpty()) {
-            Customer lastCustomer = vehicle.route.get(vehicle.route.size() - 1);
-            travelTime = lastCustomer.latest_arrival_time + distance(lastCustomer.location, customer.location);
-        } else {
-            travelTime = distance(vehicle.depot, customer.location);
+
+    public int servedCustomers(Solution solution) {
+        int served = 0;
+        for (Vehicle vehicle : solution.vehicles) {
+            served += vehicle.route.size();
         }
-        return Math.max(customer.earliest_arrival_time, travelTime);
+        return served;
     }
-    
-    public void solve() {
-        Solution currentSolution = createInitialSolution();
-        Solution bestSolution = currentSolution;
-        List<Solution> tabuList = new ArrayList<>();
-
-        int iteration = 0;
-        int maxIterations = 10;
-        int tabuSize = 10;
 
-        while (iteration < maxIterations) {
-            Solution neighborhoodSolution = generateNeighborhood(currentSolution);
+    public int usedVehicles(Solution solution) {
+        int used = 0;
+        for (Vehicle vehicle : solution.vehicles) {
+            if (!vehicle.route.isEmpty()) {
+                used++;
+            }
+        }
+        return used;
+    }
 
-            if (!tabuList.contains(neighborhoodSolution) && neighborhoodSolution.getTotalDistance() < currentSolution.getTotalDistance()) {
-                currentSolution = neighborhoodSolution;
+    public int capacityExcess(Solution solution) {
+        int excess = 0;
+        for (Vehicle vehicle : solution.vehicles) {
+            int load = 0;
+            for (Customer customer : vehicle.route) {
+                load += customer.demand;
+            }
+            excess += Math.max(0, load - vehicle.capacity);
+        }
+        return excess;
+    }
 
-                if (currentSolution.getTotalDistance() < bestSolution.getTotalDistance()) {
-                    bestSolution = currentSolution;
+    // Total time by which arrivals miss their latest arrival time, pulling each late arrival back,
+    // plus what routes of vehicles with driver rules run over them
+    public int timeWarp(Solution solution) {
+        int warp = 0;
+        for (Vehicle vehicle : solution.vehicles) {
+            if (vehicle.hasShiftLimits()) {
+                warp += shiftWarp(vehicle);
+                continue;
+            }
+            int time = 0;
+            int previous = vehicle.depotIndex;
+            for (Customer customer : vehicle.route) {
+                int arrival = time + matrix.travelTime(previous, customer.index);
+                if (arrival > customer.latest_arrival_time) {
+                    warp += arrival - customer.latest_arrival_time;
+                    arrival = customer.latest_arrival_time;
                 }
+                time = Math.max(arrival, customer.earliest_arrival_time) + customer.serving_time;
+                previous = customer.index;
             }
+        }
+        return warp;
+    }
 
-            tabuList.add(currentSolution);
-            if (tabuList.size() > tabuSize) {
-                tabuList.remove(0);
+    private boolean isTabu(long[] tabuList, int tabuCount, long signature) {
+        int size = Math.min(tabuCount, tabuList.length);
+        for (int i = 0; i < size; i++) {
+            if (tabuList[i] == signature) {
+                return true;
             }
-
-            iteration++;
         }
-
-        // Print the best solution
-        printSolution(bestSolution);
+        return false;
     }
 
 
-    private Solution createInitialSolution() {
+    Solution createInitialSolution() {
         // Apply greedy algorithm to create an initial solution
+        PhaseEvent phase = new PhaseEvent(PhaseEvent.CONSTRUCTION, customers.size());
+        phase.begin();
         Solution initialSolution = new Solution(vehicles);
         List<Customer> unvisitedCustomers = new ArrayList<>(customers);
+        int[] vehicleLoads = new int[vehicles.size()];
+        // Customers already on a route stay where they are and only the rest are placed
+        boolean[] routed = new boolean[customers.size()];
+        for (int v = 0; v < vehicles.size(); v++) {
+            for (Customer customer : vehicles.get(v).route) {
+                vehicleLoads[v] += customer.demand;
+                routed[customer.index] = true;
+            }
+        }
+        unvisitedCustomers.removeIf(customer -> routed[customer.index]);
+        // Travel from the end of every route to each customer, a whole row at a time through the
+        // insertion kernel and redone only for the vehicle that grows
+        InsertionEvaluator evaluator = matrix.isStraightLine() && !matrix.isTimeDependent() ? new InsertionEvaluator(matrix) : null;
+        int[][] travelFromLast = new int[vehicles.size()][];
+        if (evaluator != null) {
+            for (int v = 0; v < vehicles.size(); v++) {
+                travelFromLast[v] = new int[customers.size()];
+                evaluator.travelFrom(lastIndex(vehicles.get(v)), customers.size(), travelFromLast[v]);
+            }
+        }
+        // Route segments of the vehicles with driver rules, rebuilt only for the vehicle that grows
+        RouteSegments[] shifts = new RouteSegments[vehicles.size()];
+        for (int v = 0; v < vehicles.size(); v++) {
+            if (vehicles.get(v).hasShiftLimits()) {
+                shifts[v] = new RouteSegments();
+                shifts[v].build(vehicles.get(v), matrix);
+            }
+        }
     
-        while (!unvisitedCustomers.isEmpty()) {
+        // An interrupt stops construction like it stops the search, leaving the rest unrouted
+        while (!unvisitedCustomers.isEmpty() && !Thread.currentThread().isInterrupted()) {
             Customer bestCustomer = null;
             Vehicle bestVehicle = null;
+            int bestVehicleIndex = -1;
             int bestArrivalTime = Integer.MAX_VALUE;
     
             for (Customer customer : unvisitedCustomers) {
-                for (Vehicle vehicle : vehicles) {
-                    if (vehicle.canAddCustomer(customer)) {
-                        int arrivalTime = calculateArrivalTime(vehicle, customer);
+                // A delivery is placed together with its pickup
+                if (customer.pair != null && !customer.pickup) {
+                    continue;
+                }
+                for (int v = 0; v < vehicles.size(); v++) {
+                    Vehicle vehicle = vehicles.get(v);
+                    // Reject on the residual capacity and the precomputed time-window bit before the full check
+                    if (!pruner.fitsCapacity(vehicleLoads[v], 0, customer.demand, vehicle.capacity)) {
+                        continue;
+                    }
+                    if (!vehicle.route.isEmpty() && !pruner.canFollow(vehicle.route.get(vehicle.route.size() - 1), customer)) {
+                        continue;
+                    }
+                    int arrivalTime = evaluator != null
+                            ? Math.max(customer.earliest_arrival_time, lastDeparture(vehicle) + travelFromLast[v][customer.index])
+                            : calculateArrivalTime(vehicle, customer);
+                    if (customer.pair != null && matrix.arrivalTime(customer.index, customer.pair.index,
+                            arrivalTime + customer.serving_time) > customer.pair.latest_arrival_time) {
+                        continue;
+                    }
+                    if (shifts[v] != null && warpAppending(shifts[v], customer) > shifts[v].timeWarp()) {
+                        continue;
+                    }
     
-                        if (arrivalTime <= customer.latest_arrival_time && arrivalTime >= customer.earliest_arrival_time
-                                && arrivalTime < bestArrivalTime) {
-                            bestCustomer = customer;
-                            bestVehicle = vehicle;
-                            bestArrivalTime = arrivalTime;
-                        }
+                    if (arrivalTime <= customer.latest_arrival_time && arrivalTime >= customer.earliest_arrival_time
+                            && arrivalTime < bestArrivalTime) {
+                        bestCustomer = customer;
+                        bestVehicle = vehicle;
+                        bestVehicleIndex = v;
+                        bestArrivalTime = arrivalTime;
                     }
                 }
             }
     
             if (bestCustomer != null && bestVehicle != null) {
                 bestVehicle.addCustomer(bestCustomer);
+                vehicleLoads[bestVehicleIndex] += bestCustomer.demand;
                 bestCustomer.isVisited = true;
                 unvisitedCustomers.remove(bestCustomer);
+                if (bestCustomer.pair != null) {
+                    bestVehicle.addCustomer(bestCustomer.pair);
+                    bestCustomer.pair.isVisited = true;
+                    unvisitedCustomers.remove(bestCustomer.pair);
+                }
+                if (shifts[bestVehicleIndex] != null) {
+                    shifts[bestVehicleIndex].build(bestVehicle, matrix);
+                }
+                if (evaluator != null) {
+                    evaluator.travelFrom(lastIndex(bestVehicle), customers.size(), travelFromLast[bestVehicleIndex]);
+                }
+            } else if (penalties != null) {
+                // Soft constraints: place what is left where it costs the least penalty
+                for (Customer customer : unvisitedCustomers) {
+                    if (customer.pair != null && !customer.pickup) {
+                        continue;
+                    }
+                    int cheapest = 0;
+                    double cheapestCost = Double.POSITIVE_INFINITY;
+                    for (int v = 0; v < vehicles.size(); v++) {
+                        Vehicle vehicle = vehicles.get(v);
+                        int previous = vehicle.route.isEmpty() ? vehicle.depotIndex : vehicle.route.get(vehicle.route.size() - 1).index;
+                        double cost = matrix.distance(previous, customer.index)
+                                + penalties.capacity * Math.max(0, vehicleLoads[v] + customer.demand - vehicle.capacity)
+                                + penalties.timeWarp * Math.max(0, calculateArrivalTime(vehicle, customer) - customer.latest_arrival_time);
+                        if (cost < cheapestCost) {
+                            cheapest = v;
+                            cheapestCost = cost;
+                        }
+                    }
+                    vehicles.get(cheapest).addCustomer(customer);
+                    vehicleLoads[cheapest] += customer.demand;
+                    customer.isVisited = true;
+                    if (customer.pair != null) {
+                        vehicles.get(cheapest).addCustomer(customer.pair);
+                        customer.pair.isVisited = true;
+                    }
+                }
+                unvisitedCustomers.clear();
             } else {
-                System.out.println("No feasible solution for remaining customers.");
                 break;
             }
         }
     
+        unrouted = unvisitedCustomers.size();
+        phase.unrouted = unrouted;
+        phase.commit();
         return initialSolution;
     }
 
+    // Time warp of the route in segments with customer, and its delivery if it is a pickup,
+    // appended the way construction places them
+    private static int warpAppending(RouteSegments segments, Customer customer) {
+        segments.startAt(segments.size());
+        segments.then(customer);
+        if (customer.pair != null) {
+            segments.then(customer.pair);
+        }
+        return segments.endWith(segments.size());
+    }
+
+    // How many customers the last createInitialSolution left off every route
+    public int unroutedAfterConstruction() {
+        return unrouted;
+    }
+
+    private void printUnrouted() {
+        if (unrouted > 0) {
+            System.out.println("No feasible solution for remaining customers.");
+        }
+    }
+
     public Solution generateNeighborhood(Solution solution) {
+        RouteArena arena = RouteArena.get();
         List<Vehicle> currentVehicles = solution.vehicles;
         int numVehicles = currentVehicles.size();
 
         // Select two random vehicles
-        int vehicleIndex1 = (int) (Math.random() * numVehicles);
-        int vehicleIndex2 = (int) (Math.random() * numVehicles);
+        int vehicleIndex1 = (int) (random.nextDouble() * numVehicles);
+        int vehicleIndex2 = (int) (random.nextDouble() * numVehicles);
         Vehicle vehicle1 = currentVehicles.get(vehicleIndex1);
         Vehicle vehicle2 = currentVehicles.get(vehicleIndex2);
 
-        // Generate neighborhood solutions using different moves
-        Solution bestNeighborhoodSolution = null;
+        // Only the two selected routes change, so the best candidate is recorded as those two routes
+        // in arena buffers and turned into a solution once, after the loops
+        int[] bestRoute1 = arena.acquireRoute(customers.size());
+        int[] bestRoute2 = arena.acquireRoute(customers.size());
+        int bestLength1 = -1;
+        int bestLength2 = -1;
+        int bestDepot1 = -1;
         int bestObjectiveValue = Integer.MAX_VALUE;
 
+        // Per-position removal gains and route loads let most candidates be rejected before the
+        // routes are touched; the bitset, bound and O(1) deltas only hold for two distinct routes
+        boolean sameVehicle = vehicle1 == vehicle2;
+        int currentValue = augmentedDistance(solution);
+        int[] gains1 = arena.acquireRoute(vehicle1.route.size());
+        int[] gains2 = arena.acquireRoute(vehicle2.route.size());
+        int load1 = removalGains(vehicle1, gains1);
+        int load2 = removalGains(vehicle2, gains2);
+        RouteSchedule schedule1 = matrix.isTimeDependent() && !sameVehicle ? schedule(vehicle1) : null;
+        RouteSchedule schedule2 = matrix.isTimeDependent() && !sameVehicle ? schedule(vehicle2) : null;
+        // Driver rules are read off the segments of both routes: a move may not add to the time
+        // warp either route already has, rules included, which is two O(1) concatenations. Moves
+        // within one route are priced from pieces of segments1 alone. While a route eliminator
+        // runs every move is checked this way, since its offers and the fleet comparison both
+        // assume the routes stay feasible.
+        boolean segmentChecks = fleetFirst || vehicle1.hasShiftLimits() || vehicle2.hasShiftLimits();
+        int routeWarp1 = 0;
+        int routeWarp2 = 0;
+        if (segmentChecks) {
+            segments1.build(vehicle1, matrix);
+            segments2.build(vehicle2, matrix);
+            routeWarp1 = segments1.timeWarp();
+            routeWarp2 = segments2.timeWarp();
+        }
+
         // Move a customer from vehicle1 to vehicle2
         for (int i = 0; i < vehicle1.route.size(); i++) {
             Customer customer = vehicle1.route.get(i);
-            if (vehicle2.canAddCustomer(customer)) {
-                vehicle1.route.remove(i);
-                vehicle2.addCustomer(customer);
-
-                int objectiveValue = solution.getTotalDistance();
-                if (objectiveValue < bestObjectiveValue) {
-                    bestObjectiveValue = objectiveValue;
-                    bestNeighborhoodSolution = new Solution(new ArrayList<>(currentVehicles));
+            // Paired stops only move together, see below
+            if (customer.pair != null || !pruner.fitsCapacity(load2, 0, customer.demand, vehicle2.capacity)) {
+                continue;
+            }
+            // The pruning bound needs the triangle inequality, which augmented costs do not keep
+            if (!sameVehicle && (guided == null && pruner.cannotImprove(currentValue, bestObjectiveValue, gains1[i], 0, 1)
+                    || !vehicle2.route.isEmpty() && !pruner.canFollow(vehicle2.route.get(vehicle2.route.size() - 1), customer))) {
+                continue;
+            }
+            if (schedule2 != null && !fitsSchedule(vehicle2, schedule2, vehicle2.route.size(), customer, vehicle2.route.size())) {
+                continue;
+            }
+            if (segmentChecks && (sameVehicle ? warpMovedToEnd(vehicle1, i) > routeWarp1 : segments1.warpWithout(i, i + 1) > routeWarp1
+                    || segments2.warpWith(segments2.size(), customer, segments2.size()) > routeWarp2)) {
+                continue;
+            }
+            movesEvaluated++;
+            int objectiveValue = 0;
+            if (!sameVehicle) {
+                int last2 = previousIndex(vehicle2, vehicle2.route.size());
+                objectiveValue = currentValue - gains1[i] + arcCost(last2, customer.index)
+                        + arcCost(customer.index, vehicle2.depotIndex) - arcCost(last2, vehicle2.depotIndex);
+                if (objectiveValue >= bestObjectiveValue) {
+                    continue;
                 }
+            }
+            vehicle1.route.remove(i);
+            vehicle2.addCustomer(customer);
 
-                vehicle2.route.remove(customer);
-                vehicle1.route.add(i, customer);
+            if (sameVehicle) {
+                objectiveValue = augmentedDistance(solution);
+            }
+            if (objectiveValue < bestObjectiveValue) {
+                bestObjectiveValue = objectiveValue;
+                bestLength1 = copyRoute(vehicle1, bestRoute1);
+                bestLength2 = copyRoute(vehicle2, bestRoute2);
             }
+
+            vehicle2.route.remove(vehicle2.route.size() - 1);
+            vehicle1.route.add(i, customer);
         }
 
         // Swap two customers between vehicle1 and vehicle2
@@ -220,14 +4183,41 @@ public class VRPWithTimeWindows {
             Customer customer1 = vehicle1.route.get(i);
             for (int j = 0; j < vehicle2.route.size(); j++) {
                 Customer customer2 = vehicle2.route.get(j);
-                if (vehicle1.canAddCustomer(customer2) && vehicle2.canAddCustomer(customer1)) {
+                if (customer1.pair != null || customer2.pair != null) {
+                    continue;
+                }
+                if (!sameVehicle && (guided == null && pruner.cannotImprove(currentValue, bestObjectiveValue, gains1[i], gains2[j], 2)
+                        || !fitsBetween(vehicle1.route, i, customer2) || !fitsBetween(vehicle2.route, j, customer1))) {
+                    continue;
+                }
+                if (schedule1 != null && (!fitsSchedule(vehicle1, schedule1, i, customer2, i + 1)
+                        || !fitsSchedule(vehicle2, schedule2, j, customer1, j + 1))) {
+                    continue;
+                }
+                if (segmentChecks && (sameVehicle ? warpSwapped(vehicle1, i, j) > routeWarp1 : segments1.warpWith(i, customer2, i + 1) > routeWarp1
+                        || segments2.warpWith(j, customer1, j + 1) > routeWarp2)) {
+                    continue;
+                }
+                if (pruner.fitsCapacity(load1, customer1.demand, customer2.demand, vehicle1.capacity)
+                        && pruner.fitsCapacity(load2, customer2.demand, customer1.demand, vehicle2.capacity)) {
+                    movesEvaluated++;
+                    int objectiveValue = 0;
+                    if (!sameVehicle) {
+                        objectiveValue = currentValue + replacementDelta(vehicle1, i, customer2) + replacementDelta(vehicle2, j, customer1);
+                        if (objectiveValue >= bestObjectiveValue) {
+                            continue;
+                        }
+                    }
                     vehicle1.route.set(i, customer2);
                     vehicle2.route.set(j, customer1);
 
-                    int objectiveValue = solution.getTotalDistance();
+                    if (sameVehicle) {
+                        objectiveValue = augmentedDistance(solution);
+                    }
                     if (objectiveValue < bestObjectiveValue) {
                         bestObjectiveValue = objectiveValue;
-                        bestNeighborhoodSolution = new Solution(new ArrayList<>(currentVehicles));
+                        bestLength1 = copyRoute(vehicle1, bestRoute1);
+                        bestLength2 = copyRoute(vehicle2, bestRoute2);
                     }
 
                     vehicle1.route.set(i, customer1);
@@ -236,6 +4226,102 @@ public class VRPWithTimeWindows {
             }
         }
 
+        // Move a pickup-and-delivery pair from vehicle1 to vehicle2, pickup before delivery. Loads
+        // rise by the pair's demand between the two new stops, so for a fixed pickup position the
+        // running maximum over delivery positions decides capacity in O(1) per candidate, and once
+        // it is exceeded every later delivery position is too. Time windows are only walked for
+        // candidates that would become the best.
+        if (loads1 != null && !sameVehicle) {
+            loads1.build(vehicle1);
+            loads2.build(vehicle2);
+            int size2 = vehicle2.route.size();
+            for (int a = 0; a < vehicle1.route.size(); a++) {
+                Customer pickup = vehicle1.route.get(a);
+                if (pickup.pair == null || !pickup.pickup) {
+                    continue;
+                }
+                Customer delivery = pickup.pair;
+                int b = loads1.position(delivery);
+                if (b <= a) {
+                    continue;
+                }
+                int removal = b == a + 1
+                        ? arcCost(previousIndex(vehicle1, a), pickup.index) + arcCost(pickup.index, delivery.index)
+                                + arcCost(delivery.index, nextIndex(vehicle1, b)) - arcCost(previousIndex(vehicle1, a), nextIndex(vehicle1, b))
+                        : gains1[a] + gains1[b];
+                boolean alwaysFits = loads2.maxLoad() + pickup.demand <= vehicle2.capacity;
+                for (int i = 0; i <= size2; i++) {
+                    int runningMax = 0;
+                    for (int j = i; j <= size2; j++) {
+                        runningMax = Math.max(runningMax, loads2.load(j));
+                        if (!alwaysFits && runningMax + pickup.demand > vehicle2.capacity) {
+                            break;
+                        }
+                        int insertion = i == j
+                                ? arcCost(previousIndex(vehicle2, i), pickup.index) + arcCost(pickup.index, delivery.index)
+                                        + arcCost(delivery.index, stopIndex(vehicle2, i)) - arcCost(previousIndex(vehicle2, i), stopIndex(vehicle2, i))
+                                : insertionDelta(vehicle2, i, pickup) + insertionDelta(vehicle2, j, delivery);
+                        movesEvaluated++;
+                        int objectiveValue = currentValue - removal + insertion;
+                        if (objectiveValue >= bestObjectiveValue) {
+                            continue;
+                        }
+                        vehicle1.route.remove(b);
+                        vehicle1.route.remove(a);
+                        vehicle2.route.add(j, delivery);
+                        vehicle2.route.add(i, pickup);
+                        if (withinTimeWindows(vehicle2)) {
+                            bestObjectiveValue = objectiveValue;
+                            bestLength1 = copyRoute(vehicle1, bestRoute1);
+                            bestLength2 = copyRoute(vehicle2, bestRoute2);
+                            bestDepot1 = -1;
+                        }
+                        vehicle2.route.remove(i);
+                        vehicle2.route.remove(j);
+                        vehicle1.route.add(a, pickup);
+                        vehicle1.route.add(b, delivery);
+                    }
+                }
+            }
+        }
+
+        // Serve vehicle1's whole route from another depot. Leaving from there shifts every arrival,
+        // so the whole route is checked again from the new depot, driver rules included.
+        for (int depot = 0; depot < matrix.depotCount() && !vehicle1.route.isEmpty(); depot++) {
+            int depotIndex = matrix.depotIndex(depot);
+            Customer first = vehicle1.route.get(0);
+            if (depotIndex == vehicle1.depotIndex || matrix.arrivalTime(depotIndex, first.index, 0) > first.latest_arrival_time) {
+                continue;
+            }
+            int currentDepot = vehicle1.depotIndex;
+            vehicle1.depotIndex = depotIndex;
+            boolean feasible = withinTimeWindows(vehicle1);
+            vehicle1.depotIndex = currentDepot;
+            if (!feasible) {
+                continue;
+            }
+            movesEvaluated++;
+            int objectiveValue = currentValue + depotDelta(vehicle1, depotIndex);
+            if (objectiveValue < bestObjectiveValue) {
+                bestObjectiveValue = objectiveValue;
+                bestLength1 = copyRoute(vehicle1, bestRoute1);
+                bestLength2 = copyRoute(vehicle2, bestRoute2);
+                bestDepot1 = depot;
+            }
+        }
+
+        if (bestLength1 < 0) {
+            return null;
+        }
+        Solution bestNeighborhoodSolution = arena.acquireSolution(solution);
+        restoreRoute(bestNeighborhoodSolution.vehicles.get(vehicleIndex1), bestRoute1, bestLength1);
+        restoreRoute(bestNeighborhoodSolution.vehicles.get(vehicleIndex2), bestRoute2, bestLength2);
+        if (bestDepot1 >= 0) {
+            Vehicle moved = bestNeighborhoodSolution.vehicles.get(vehicleIndex1);
+            moved.depot = matrix.depot(bestDepot1);
+            moved.depotIndex = matrix.depotIndex(bestDepot1);
+        }
+
         // Reinsert a customer within vehicle
         // for (int i = 0; i < vehicle1.route.size(); i++) {
         //     Customer customer = vehicle1.route.remove(i);
@@ -256,6 +4342,322 @@ public class VRPWithTimeWindows {
         return bestNeighborhoodSolution;
     }
 
+    // Total distance through the matrix, so road-network costs are used when present
+    public int totalDistance(Solution solution) {
+        int totalDistance = 0;
+        for (int v = 0; v < solution.vehicles.size(); v++) {
+            Vehicle vehicle = solution.vehicles.get(v);
+            int previous = vehicle.depotIndex;
+            for (int i = 0; i < vehicle.route.size(); i++) {
+                int current = vehicle.route.get(i).index;
+                totalDistance += matrix.distance(previous, current);
+                previous = current;
+            }
+            totalDistance += matrix.distance(previous, vehicle.depotIndex);
+        }
+        return totalDistance;
+    }
+
+    // Distance as the moves see it: augmented by the guided local search penalties when it is on
+    private int arcCost(int from, int to) {
+        return guided != null ? guided.cost(from, to) : matrix.distance(from, to);
+    }
+
+    private int augmentedDistance(Solution solution) {
+        if (guided == null) {
+            return totalDistance(solution);
+        }
+        int augmentedDistance = 0;
+        for (int v = 0; v < solution.vehicles.size(); v++) {
+            Vehicle vehicle = solution.vehicles.get(v);
+            int previous = vehicle.depotIndex;
+            for (int i = 0; i < vehicle.route.size(); i++) {
+                int current = vehicle.route.get(i).index;
+                augmentedDistance += guided.cost(previous, current);
+                previous = current;
+            }
+            augmentedDistance += guided.cost(previous, vehicle.depotIndex);
+        }
+        return augmentedDistance;
+    }
+
+    // Same moves as generateNeighborhood, but violations are allowed and priced: every term of the
+    // weighted objective is kept per route in RouteSegments, so each move delta is O(1)
+    public Solution generatePenalizedNeighborhood(Solution solution) {
+        RouteArena arena = RouteArena.get();
+        List<Vehicle> currentVehicles = solution.vehicles;
+        int numVehicles = currentVehicles.size();
+        if (numVehicles < 2) {
+            return null;
+        }
+
+        int vehicleIndex1 = (int) (random.nextDouble() * numVehicles);
+        int vehicleIndex2 = (vehicleIndex1 + 1 + (int) (random.nextDouble() * (numVehicles - 1))) % numVehicles;
+        Vehicle vehicle1 = currentVehicles.get(vehicleIndex1);
+        Vehicle vehicle2 = currentVehicles.get(vehicleIndex2);
+        int[] gains1 = arena.acquireRoute(vehicle1.route.size());
+        removalGains(vehicle1, gains1);
+        segments1.build(vehicle1, matrix);
+        segments2.build(vehicle2, matrix);
+        int size1 = segments1.size();
+        int size2 = segments2.size();
+        int warp1 = segments1.timeWarp();
+        int warp2 = segments2.timeWarp();
+        int excess = excess(segments1.load, vehicle1.capacity) + excess(segments2.load, vehicle2.capacity);
+
+        double bestDelta = Double.POSITIVE_INFINITY;
+        int bestI = -1;
+        int bestJ = -1;
+        int bestExcess = 0;
+        int bestWarp = 0;
+        int bestUsed = 0;
+
+        // Move a customer from vehicle1 to the end of vehicle2
+        for (int i = 0; i < size1; i++) {
+            Customer customer = vehicle1.route.get(i);
+            if (customer.pair != null) {
+                continue;
+            }
+            movesEvaluated++;
+            int last2 = previousIndex(vehicle2, size2);
+            int distance = -gains1[i] + arcCost(last2, customer.index)
+                    + arcCost(customer.index, vehicle2.depotIndex) - arcCost(last2, vehicle2.depotIndex);
+            int newExcess = excess(segments1.load - customer.demand, vehicle1.capacity) + excess(segments2.load + customer.demand, vehicle2.capacity);
+            int newWarp = segments1.warpWithout(i, i + 1) + segments2.warpWith(size2, customer, size2);
+            int usedDelta = (size1 == 1 ? -1 : 0) + (size2 == 0 ? 1 : 0);
+            double delta = distance + penalties.capacity * (newExcess - excess)
+                    + penalties.timeWarp * (newWarp - warp1 - warp2) + penalties.vehicle * usedDelta;
+            if (delta < bestDelta) {
+                bestDelta = delta;
+                bestI = i;
+                bestJ = -1;
+                bestExcess = newExcess - excess;
+                bestWarp = newWarp - warp1 - warp2;
+                bestUsed = usedDelta;
+            }
+        }
+
+        // Swap two customers between vehicle1 and vehicle2
+        for (int i = 0; i < size1; i++) {
+            Customer customer1 = vehicle1.route.get(i);
+            for (int j = 0; j < size2; j++) {
+                Customer customer2 = vehicle2.route.get(j);
+                if (customer1.pair != null || customer2.pair != null) {
+                    continue;
+                }
+                movesEvaluated++;
+                int distance = replacementDelta(vehicle1, i, customer2) + replacementDelta(vehicle2, j, customer1);
+                int newExcess = excess(segments1.load - customer1.demand + customer2.demand, vehicle1.capacity)
+                        + excess(segments2.load - customer2.demand + customer1.demand, vehicle2.capacity);
+                int newWarp = segments1.warpWith(i, customer2, i + 1) + segments2.warpWith(j, customer1, j + 1);
+                double delta = distance + penalties.capacity * (newExcess - excess) + penalties.timeWarp * (newWarp - warp1 - warp2);
+                if (delta < bestDelta) {
+                    bestDelta = delta;
+                    bestI = i;
+                    bestJ = j;
+                    bestExcess = newExcess - excess;
+                    bestWarp = newWarp - warp1 - warp2;
+                    bestUsed = 0;
+                }
+            }
+        }
+
+        if (bestI < 0) {
+            return null;
+        }
+        knownCosts(solution);
+        Solution bestNeighborhoodSolution = arena.acquireSolution(solution);
+        Vehicle moved1 = bestNeighborhoodSolution.vehicles.get(vehicleIndex1);
+        Vehicle moved2 = bestNeighborhoodSolution.vehicles.get(vehicleIndex2);
+        List<Customer> route1 = moved1.route;
+        List<Customer> route2 = moved2.route;
+        if (bestJ < 0) {
+            route2.add(route1.remove(bestI));
+        } else {
+            Customer customer1 = route1.get(bestI);
+            route1.set(bestI, route2.get(bestJ));
+            route2.set(bestJ, customer1);
+        }
+        // Carry the totals over: violations by the move's deltas, distances by recounting the two routes
+        bestNeighborhoodSolution.distance += routeCost(moved1, false) + routeCost(moved2, false)
+                - routeCost(vehicle1, false) - routeCost(vehicle2, false);
+        bestNeighborhoodSolution.augmented += routeCost(moved1, true) + routeCost(moved2, true)
+                - routeCost(vehicle1, true) - routeCost(vehicle2, true);
+        bestNeighborhoodSolution.excess += bestExcess;
+        bestNeighborhoodSolution.warp += bestWarp;
+        bestNeighborhoodSolution.routes += bestUsed;
+        return bestNeighborhoodSolution;
+    }
+
+    // Length of one route, augmented by the guided local search penalties if asked and on
+    private int routeCost(Vehicle vehicle, boolean augmented) {
+        int cost = 0;
+        int previous = vehicle.depotIndex;
+        for (int i = 0; i < vehicle.route.size(); i++) {
+            int current = vehicle.route.get(i).index;
+            cost += augmented ? arcCost(previous, current) : matrix.distance(previous, current);
+            previous = current;
+        }
+        return cost + (augmented ? arcCost(previous, vehicle.depotIndex) : matrix.distance(previous, vehicle.depotIndex));
+    }
+
+    private int excess(int load, int capacity) {
+        return Math.max(0, load - capacity);
+    }
+
+    // Fill gains with what removing each customer saves on the route and return the route load
+    private int removalGains(Vehicle vehicle, int[] gains) {
+        List<Customer> route = vehicle.route;
+        int load = 0;
+        for (int i = 0; i < route.size(); i++) {
+            int previous = previousIndex(vehicle, i);
+            int next = nextIndex(vehicle, i);
+            int current = route.get(i).index;
+            gains[i] = arcCost(previous, current) + arcCost(current, next) - arcCost(previous, next);
+            load += route.get(i).demand;
+        }
+        return load;
+    }
+
+    // Matrix index of the stop before / after position, the vehicle's own depot at either end
+    private int previousIndex(Vehicle vehicle, int position) {
+        return position > 0 ? vehicle.route.get(position - 1).index : vehicle.depotIndex;
+    }
+
+    private int nextIndex(Vehicle vehicle, int position) {
+        return position + 1 < vehicle.route.size() ? vehicle.route.get(position + 1).index : vehicle.depotIndex;
+    }
+
+    // Matrix index of the stop at position, or the depot past the end of the route
+    private int stopIndex(Vehicle vehicle, int position) {
+        return position < vehicle.route.size() ? vehicle.route.get(position).index : vehicle.depotIndex;
+    }
+
+    // Cost change of inserting customer before route[position], in O(1)
+    private int insertionDelta(Vehicle vehicle, int position, Customer customer) {
+        int previous = previousIndex(vehicle, position);
+        int next = stopIndex(vehicle, position);
+        return arcCost(previous, customer.index) + arcCost(customer.index, next) - arcCost(previous, next);
+    }
+
+    // Whether every stop of the route is reached by its latest arrival time, within the driver rules
+    private boolean withinTimeWindows(Vehicle vehicle) {
+        if (vehicle.hasShiftLimits()) {
+            return shiftWarp(vehicle) == 0;
+        }
+        int time = 0;
+        int previous = vehicle.depotIndex;
+        for (int i = 0; i < vehicle.route.size(); i++) {
+            Customer customer = vehicle.route.get(i);
+            int arrival = matrix.arrivalTime(previous, customer.index, time);
+            if (arrival > customer.latest_arrival_time) {
+                return false;
+            }
+            time = Math.max(arrival, customer.earliest_arrival_time) + customer.serving_time;
+            previous = customer.index;
+        }
+        return true;
+    }
+
+    // Time warp of the route under its vehicle's driver rules, in O(route)
+    private int shiftWarp(Vehicle vehicle) {
+        shiftSegments.build(vehicle, matrix);
+        return shiftSegments.timeWarp();
+    }
+
+    // Time warp of vehicle's route, as built in segments1, with route[i] moved to the end
+    private int warpMovedToEnd(Vehicle vehicle, int i) {
+        int size = vehicle.route.size();
+        segments1.startAt(i);
+        segments1.then(i + 1, size);
+        segments1.then(vehicle.route.get(i));
+        return segments1.endWith(size);
+    }
+
+    // Time warp of vehicle's route, as built in segments1, with route[i] and route[j] swapped
+    private int warpSwapped(Vehicle vehicle, int i, int j) {
+        int first = Math.min(i, j);
+        int second = Math.max(i, j);
+        if (first == second) {
+            return segments1.timeWarp();
+        }
+        segments1.startAt(first);
+        segments1.then(vehicle.route.get(second));
+        segments1.then(first + 1, second);
+        segments1.then(vehicle.route.get(first));
+        return segments1.endWith(second + 1);
+    }
+
+    // Cost change of putting customer in place of route[position], in O(1)
+    private int replacementDelta(Vehicle vehicle, int position, Customer customer) {
+        int previous = previousIndex(vehicle, position);
+        int next = nextIndex(vehicle, position);
+        int current = vehicle.route.get(position).index;
+        return arcCost(previous, customer.index) + arcCost(customer.index, next)
+                - arcCost(previous, current) - arcCost(current, next);
+    }
+
+    // Cost change of serving the whole route from another depot, in O(1)
+    private int depotDelta(Vehicle vehicle, int depotIndex) {
+        if (vehicle.route.isEmpty()) {
+            return 0;
+        }
+        int first = vehicle.route.get(0).index;
+        int last = vehicle.route.get(vehicle.route.size() - 1).index;
+        return arcCost(depotIndex, first) + arcCost(last, depotIndex)
+                - arcCost(vehicle.depotIndex, first) - arcCost(last, vehicle.depotIndex);
+    }
+
+    // Whether customer can take the place of route[position] as far as the time-window bitset can tell
+    private boolean fitsBetween(List<Customer> route, int position, Customer customer) {
+        if (position > 0 && !pruner.canFollow(route.get(position - 1), customer)) {
+            return false;
+        }
+        return position + 1 >= route.size() || pruner.canFollow(customer, route.get(position + 1));
+    }
+
+    private RouteSchedule schedule(Vehicle vehicle) {
+        long key = vehicle.depotIndex;
+        for (int i = 0; i < vehicle.route.size(); i++) {
+            key = 31 * key + vehicle.route.get(i).index;
+        }
+        RouteSchedule schedule = schedules.get(key);
+        if (schedule == null || !schedule.matches(vehicle)) {
+            schedule = new RouteSchedule(vehicle, matrix);
+            schedules.put(key, schedule);
+        }
+        return schedule;
+    }
+
+    // Whether customer can be served after the stop at position - 1 and before the one at next,
+    // in O(log breakpoints) from the route's departures and latest arrivals
+    private boolean fitsSchedule(Vehicle vehicle, RouteSchedule schedule, int position, Customer customer, int next) {
+        double departure = position > 0 ? schedule.departures[position - 1] : 0;
+        double arrival = matrix.arc(previousIndex(vehicle, position), customer.index).at(departure);
+        if (arrival > customer.latest_arrival_time) {
+            return false;
+        }
+        if (next >= schedule.stops.length) {
+            return true;
+        }
+        departure = Math.max(arrival, customer.earliest_arrival_time) + customer.serving_time;
+        return matrix.arc(customer.index, schedule.stops[next]).at(departure) <= schedule.latestArrivals[next];
+    }
+
+    private int copyRoute(Vehicle vehicle, int[] buffer) {
+        for (int i = 0; i < vehicle.route.size(); i++) {
+            buffer[i] = vehicle.route.get(i).index;
+        }
+        return vehicle.route.size();
+    }
+
+    private void restoreRoute(Vehicle vehicle, int[] buffer, int length) {
+        vehicle.route.clear();
+        for (int i = 0; i < length; i++) {
+            vehicle.route.add(customers.get(buffer[i]));
+        }
+    }
+
 
     private void printSolution(Solution solution) {
         double allTotalDistance = 0;
@@ -267,6 +4669,7 @@ public class VRPWithTimeWindows {
                 return;
             }
             Location previousLocation = vehicle.depot;
+            int previous = vehicle.depotIndex;
             int currentTime = 0;
             int index = solution.vehicles.indexOf(vehicle) + 1;
             System.out.println("Vehicle " + index + " route:");
@@ -278,31 +4681,32 @@ public class VRPWithTimeWindows {
 
             for (Customer customer : vehicle.route) {
                 Location currentLocation = customer.location;
-                int travelTime = distance(previousLocation, currentLocation);
-                int arrivalTime = Math.max(currentTime + travelTime, customer.earliest_arrival_time);
+                int travelDistance = matrix.distance(previous, customer.index);
+                int arrivalTime = Math.max(matrix.arrivalTime(previous, customer.index, currentTime), customer.earliest_arrival_time);
                 int waitingTime = Math.max(0, customer.earliest_arrival_time - currentTime);
                 int serviceTime = customer.serving_time;
                 int departureTime = arrivalTime + serviceTime;
                 totalDemand += customer.demand;
-                totalDistance += travelTime;
+                totalDistance += travelDistance;
                 totalServiceTime += serviceTime;
                 int remainingCapacity = vehicle.capacity - totalDemand;
 
 
                 System.out.println("From (" + previousLocation.x + ", " + previousLocation.y + ") to (" + currentLocation.x + ", " + currentLocation.y + ")");
-                System.out.println("Travel Distance: " + travelTime);
+                System.out.println("Travel Distance: " + travelDistance);
                 System.out.println("Arrival Time: " + arrivalTime);
                 System.out.println("Waiting Time: " + waitingTime);
                 System.out.println("Service Time: " + serviceTime);
                 System.out.println("Departure Time: " + departureTime);
                 System.out.println("Remaining Capacity: " + remainingCapacity);
                 previousLocation = currentLocation;
+                previous = customer.index;
                 currentTime = departureTime;
             }
 
 
             // Add distance from the last customer to the depot
-            double lastDistance = distance(previousLocation, vehicle.depot);
+            double lastDistance = matrix.distance(previous, vehicle.depotIndex);
             totalDistance += lastDistance;
             allTotalDistance += totalDistance;
 
@@ -318,6 +4722,46 @@ public class VRPWithTimeWindows {
     }
 
 
+    // The bundled 25-customer sample, also solved by the RegressionGate
+    static List<Customer> sampleCustomers() {
+        List<Customer> customers = new ArrayList<>();
+        customers.add(new Customer(1, 0, 0, 230, 0, new Location(35, 35),false));
+        customers.add(new Customer(2, 10, 161, 171, 10, new Location(41, 49),false));
+        customers.add(new Customer(3, 7, 50, 60, 10, new Location(35, 17),false));
+        customers.add(new Customer(4, 13, 116, 126, 10, new Location(55, 45),false));
+        customers.add(new Customer(5, 19, 149, 159, 10, new Location(55, 20),false));
+        customers.add(new Customer(6, 26, 34, 44, 10, new Location(15, 30),false));
+        customers.add(new Customer(7, 3, 99, 109, 10, new Location(25, 30),false));
+        customers.add(new Customer(8, 5, 81, 91, 10, new Location(20, 50),false));
+        customers.add(new Customer(9, 9, 95, 105, 10, new Location(10, 43),false));
+        customers.add(new Customer(10, 16, 97, 107, 10, new Location(55, 60),false));
+        customers.add(new Customer(11, 16, 124, 134, 10, new Location(30, 60),false));
+        customers.add(new Customer(12, 12, 67, 77, 10, new Location(20, 65),false));
+        customers.add(new Customer(13, 19, 63, 73, 10, new Location(50, 35),false));
+        customers.add(new Customer(14, 23, 159, 169, 10, new Location(30, 25),false));
+        customers.add(new Customer(15, 20, 32, 42, 10, new Location(15, 10),false));
+        customers.add(new Customer(16, 8, 61, 71, 10, new Location(30, 5),false));
+        customers.add(new Customer(17, 19, 75, 85, 10, new Location(10, 20),false));
+        customers.add(new Customer(18, 2, 157, 167, 10, new Location(5, 0),false));
+        customers.add(new Customer(19, 12, 87, 97, 10, new Location(20, 40),false));
+        customers.add(new Customer(20, 17, 76, 86, 10, new Location(15, 60),false));
+        customers.add(new Customer(21, 9, 126, 136, 10, new Location(45, 65),false));
+        customers.add(new Customer(22, 11, 62, 72, 10, new Location(45, 20),false));
+        customers.add(new Customer(23, 18, 97, 107, 10, new Location(45, 10),false));
+        customers.add(new Customer(24, 15, 60, 70, 10, new Location(45, 5),false));
+        customers.add(new Customer(25, 4, 22, 32, 10, new Location(55, 5),false));
+        return customers;
+    }
+
+    static List<Vehicle> sampleVehicles() {
+        List<Vehicle> vehicles = new ArrayList<>();
+        Location depot = new Location(0, 0);
+        for (int i = 1; i <= 25; i++) {
+            vehicles.add(new Vehicle(200, depot));
+        }
+        return vehicles;
+    }
+
     public static void main(String[] args) {
         // Create customers
         // String filePath = "E:/vrp/VRPTW_data_sample_1.xlsx";
@@ -354,56 +4798,21 @@ public class VRPWithTimeWindows {
         //     e.printStackTrace();
         // }
 
-        List<Customer> customers = new ArrayList<>();
-        customers.add(new Customer(1, 0, 0, 230, 0, new Location(35, 35),false));
-        customers.add(new Customer(2, 10, 161, 171, 10, new Location(41, 49),false));
-        customers.add(new Customer(3, 7, 50, 60, 10, new Location(35, 17),false));
-        customers.add(new Customer(4, 13, 116, 126, 10, new Location(55, 45),false));
-        customers.add(new Customer(5, 19, 149, 159, 10, new Location(55, 20),false));
-        customers.add(new Customer(6, 26, 34, 44, 10, new Location(15, 30),false));
-        customers.add(new Customer(7, 3, 99, 109, 10, new Location(25, 30),false));
-        customers.add(new Customer(8, 5, 81, 91, 10, new Location(20, 50),false));
-        customers.add(new Customer(9, 9, 95, 105, 10, new Location(10, 43),false));
-        customers.add(new Customer(10, 16, 97, 107, 10, new Location(55, 60),false));
-        customers.add(new Customer(11, 16, 124, 134, 10, new Location(30, 60),false));
-        customers.add(new Customer(12, 12, 67, 77, 10, new Location(20, 65),false));
-        customers.add(new Customer(13, 19, 63, 73, 10, new Location(50, 35),false));
-        customers.add(new Customer(14, 23, 159, 169, 10, new Location(30, 25),false));
-        customers.add(new Customer(15, 20, 32, 42, 10, new Location(15, 10),false));
-        customers.add(new Customer(16, 8, 61, 71, 10, new Location(30, 5),false));
-        customers.add(new Customer(17, 19, 75, 85, 10, new Location(10, 20),false));
-        customers.add(new Customer(18, 2, 157, 167, 10, new Location(5, 0),false));
-        customers.add(new Customer(19, 12, 87, 97, 10, new Location(20, 40),false));
-        customers.add(new Customer(20, 17, 76, 86, 10, new Location(15, 60),false));
-        customers.add(new Customer(21, 9, 126, 136, 10, new Location(45, 65),false));
-        customers.add(new Customer(22, 11, 62, 72, 10, new Location(45, 20),false));
-        customers.add(new Customer(23, 18, 97, 107, 10, new Location(45, 10),false));
-        customers.add(new Customer(24, 15, 60, 70, 10, new Location(45, 5),false));
-        customers.add(new Customer(25, 4, 22, 32, 10, new Location(55, 5),false));
+        List<Customer> customers = sampleCustomers();
 
 
         // Create vehicles
-        List<Vehicle> vehicles = new ArrayList<>();
-            Location depot = new Location(0, 0);
-            for (int i = 1; i <= 25; i++) {
-                vehicles.add(new Vehicle(200, depot));
-            }
+        List<Vehicle> vehicles = sampleVehicles();
 
 
         // Create VRPTW instance and solve
         VRPWithTimeWindows vrp = new VRPWithTimeWindows(customers, vehicles);
         // vrp.solve();
         Solution solutionx = vrp.createInitialSolution();
+        vrp.printUnrouted();
         vrp.printSolution(solutionx);
         System.out.println("Best Solution: " + solutionx.getTotalDistance());
     }
-
-
-    private int distance(Location location1, Location location2) {
-        int dx = location1.x - location2.x;
-        int dy = location1.y - location2.y;
-        return (int) Math.sqrt(dx * dx + dy * dy);
-    }
 }
 
 
@@ -0,0 +1,48 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+// InsertionKernel on the Vector API. Only compiles and runs with --add-modules jdk.incubator.vector,
+// which is why it lives outside VRPWithTimeWindows.java; InsertionEvaluator loads it by name
+// and keeps the scalar loops when it is missing. The square roots are taken in double lanes with
+// half as many int lanes feeding them, and truncated back like the (int) cast of the scalar
+// loop, so both kernels give the same distances.
+class VectorInsertionKernel implements InsertionKernel {
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> HALF_INTS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void distances(int[] xs, int[] ys, int count, int x, int y, int[] out) {
+        int s = 0;
+        for (int bound = HALF_INTS.loopBound(count); s < bound; s += HALF_INTS.length()) {
+            IntVector dx = IntVector.fromArray(HALF_INTS, xs, s).sub(x);
+            IntVector dy = IntVector.fromArray(HALF_INTS, ys, s).sub(y);
+            IntVector squared = dx.mul(dx).add(dy.mul(dy));
+            DoubleVector root = ((DoubleVector) squared.convertShape(VectorOperators.I2D, DOUBLES, 0)).lanewise(VectorOperators.SQRT);
+            ((IntVector) root.convertShape(VectorOperators.D2I, HALF_INTS, 0)).intoArray(out, s);
+        }
+        for (; s < count; s++) {
+            int dx = xs[s] - x;
+            int dy = ys[s] - y;
+            out[s] = (int) Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    @Override
+    public void deltas(int[] toCustomer, int[] edges, int count, int[] out) {
+        int p = 0;
+        for (int bound = INTS.loopBound(count); p < bound; p += INTS.length()) {
+            IntVector.fromArray(INTS, toCustomer, p)
+                    .add(IntVector.fromArray(INTS, toCustomer, p + 1))
+                    .sub(IntVector.fromArray(INTS, edges, p))
+                    .intoArray(out, p);
+        }
+        for (; p < count; p++) {
+            out[p] = toCustomer[p] + toCustomer[p + 1] - edges[p];
+        }
+    }
+}
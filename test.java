@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -48,7 +49,10 @@ class Vehicle {
 
 
     public boolean canAddCustomer(Customer customer) {
-        int totalDemand = route.stream().mapToInt(c -> c.demand).sum();
+        int totalDemand = 0;
+        for (int i = 0; i < route.size(); i++) {
+            totalDemand += route.get(i).demand;
+        }
         return totalDemand + customer.demand <= capacity;
     }
 
@@ -62,6 +66,7 @@ class Vehicle {
 public class VRPWithTimeWindows {
     private List<Customer> customers;
     private List<Vehicle> vehicles;
+    private final ThreadLocal<RouteArena> arena = ThreadLocal.withInitial(RouteArena::new);
 
 
     public VRPWithTimeWindows(List<Customer> customers, List<Vehicle> vehicles) {
@@ -80,22 +85,27 @@ public class VRPWithTimeWindows {
     }
     public void solve() {
         // Create initial solution using the greedy algorithm
-        Solution currentSolution = createInitialSolution();
+        Solution currentSolution = createInitialSolution().clone();
+        RouteArena routeArena = arena.get();
         // Initialize Tabu Search parameters
         int maxIterations = 1000;
         int tabuListSize = 25;
-        List<Solution> tabuList = new ArrayList<>();
+        long[] tabuList = new long[tabuListSize];
+        int tabuCount = 0;
 
 
         // Perform Tabu Search iterations
         for (int iteration = 1; iteration <= maxIterations; iteration++) {
+            routeArena.reset();
             List<Solution> neighborhood = generateNeighborhood(currentSolution);
-            Solution bestNeighbor = findBestNeighbor(neighborhood, tabuList);
-            tabuList.add(bestNeighbor);
-            if (tabuList.size() > tabuListSize) {
-                tabuList.remove(0);
+            Solution bestNeighbor = findBestNeighbor(neighborhood, tabuList, Math.min(tabuCount, tabuListSize));
+            if (bestNeighbor == null) {
+                break;
             }
-            currentSolution = bestNeighbor;
+            tabuList[tabuCount % tabuListSize] = bestNeighbor.signature();
+            tabuCount++;
+            // Neighbours are arena shells, so copy the chosen one before the next reset
+            currentSolution.copyFrom(bestNeighbor);
         }
 
 
@@ -138,12 +148,15 @@ public class VRPWithTimeWindows {
                 break;
             }
         }
+        initialSolution.markAllDirty();
+        initialSolution.updateTotalDistance();
     
         return initialSolution;
     }
 
     private List<Solution> generateNeighborhood(Solution solution) {
-        List<Solution> neighborhood = new ArrayList<>();
+        RouteArena routeArena = arena.get();
+        List<Solution> neighborhood = routeArena.neighborhood;
         List<Vehicle> vehicles = solution.vehicles;
         int numVehicles = vehicles.size();
 
@@ -167,10 +180,9 @@ public class VRPWithTimeWindows {
 
                     if (vehicle1.canAddCustomer(customer2) && vehicle2.canAddCustomer(customer1)) {
                         // Create a new solution by swapping customers between two vehicles
-                        Solution newSolution = solution.clone();
+                        Solution newSolution = routeArena.acquireSolution(solution);
                         route1.remove(j);
                         route2.add(k, customer1);
-                        newSolution.updateTotalDistance();
 
 
                         neighborhood.add(newSolution);
@@ -189,13 +201,14 @@ public class VRPWithTimeWindows {
     }
 
 
-    private Solution findBestNeighbor(List<Solution> neighborhood, List<Solution> tabuList) {
+    private Solution findBestNeighbor(List<Solution> neighborhood, long[] tabuList, int tabuCount) {
         Solution bestNeighbor = null;
         double bestDistance = Double.POSITIVE_INFINITY;
 
 
-        for (Solution neighbor : neighborhood) {
-            if (!tabuList.contains(neighbor) && neighbor.totalDistance < bestDistance) {
+        for (int n = 0; n < neighborhood.size(); n++) {
+            Solution neighbor = neighborhood.get(n);
+            if (neighbor.totalDistance < bestDistance && !isTabu(tabuList, tabuCount, neighbor.signature())) {
                 bestNeighbor = neighbor;
                 bestDistance = neighbor.totalDistance;
             }
@@ -206,6 +219,16 @@ public class VRPWithTimeWindows {
     }
 
 
+    private boolean isTabu(long[] tabuList, int tabuCount, long signature) {
+        for (int i = 0; i < tabuCount; i++) {
+            if (tabuList[i] == signature) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
     private void printSolution(Solution solution) {
         double allTotalDistance = 0;
 
@@ -319,11 +342,24 @@ public class VRPWithTimeWindows {
     private class Solution implements Cloneable {
         List<Vehicle> vehicles;
         double totalDistance;
+        int totalLoad;
+        int totalLateness;
+        // Cached cost of every route; updateTotalDistance only walks routes marked dirty and
+        // adjusts the totals by the difference
+        private double[] routeDistance;
+        private int[] routeLoad;
+        private int[] routeLateness;
+        private boolean[] dirty;
 
 
         public Solution(List<Vehicle> vehicles) {
             this.vehicles = vehicles;
             this.totalDistance = 0;
+            this.routeDistance = new double[vehicles.size()];
+            this.routeLoad = new int[vehicles.size()];
+            this.routeLateness = new int[vehicles.size()];
+            this.dirty = new boolean[vehicles.size()];
+            markAllDirty();
             updateTotalDistance();
         }
 
@@ -341,28 +377,130 @@ public class VRPWithTimeWindows {
         }
 
 
+        // Overwrite this solution with the routes of another one, reusing the existing vehicles and route lists
+        public void copyFrom(Solution other) {
+            while (vehicles.size() > other.vehicles.size()) {
+                vehicles.remove(vehicles.size() - 1);
+            }
+            for (int v = 0; v < other.vehicles.size(); v++) {
+                Vehicle source = other.vehicles.get(v);
+                if (v == vehicles.size()) {
+                    vehicles.add(new Vehicle(source.capacity, source.depot));
+                }
+                Vehicle target = vehicles.get(v);
+                target.capacity = source.capacity;
+                target.depot = source.depot;
+                target.route.clear();
+                for (int i = 0; i < source.route.size(); i++) {
+                    target.route.add(source.route.get(i));
+                }
+            }
+            int n = other.vehicles.size();
+            if (dirty.length != n) {
+                routeDistance = new double[n];
+                routeLoad = new int[n];
+                routeLateness = new int[n];
+                dirty = new boolean[n];
+            }
+            System.arraycopy(other.routeDistance, 0, routeDistance, 0, n);
+            System.arraycopy(other.routeLoad, 0, routeLoad, 0, n);
+            System.arraycopy(other.routeLateness, 0, routeLateness, 0, n);
+            System.arraycopy(other.dirty, 0, dirty, 0, n);
+            totalDistance = other.totalDistance;
+            totalLoad = other.totalLoad;
+            totalLateness = other.totalLateness;
+        }
+
+
+        // Must be called for every route changed in place before the next updateTotalDistance
+        public void markDirty(int vehicleIndex) {
+            dirty[vehicleIndex] = true;
+        }
+
+
+        public void markAllDirty() {
+            Arrays.fill(dirty, true);
+        }
+
+
+        public long signature() {
+            long hash = 1125899906842597L;
+            for (int v = 0; v < vehicles.size(); v++) {
+                List<Customer> route = vehicles.get(v).route;
+                for (int i = 0; i < route.size(); i++) {
+                    hash = 31 * hash + route.get(i).id;
+                }
+                hash = 31 * hash - 1;
+            }
+            return hash;
+        }
+
+
         public void updateTotalDistance() {
-            totalDistance = vehicles.stream()
-                    .mapToDouble(this::calculateRouteDistance)
-                    .sum();
+            for (int v = 0; v < vehicles.size(); v++) {
+                if (dirty[v]) {
+                    calculateRouteCost(v);
+                }
+            }
         }
 
 
-        private double calculateRouteDistance(Vehicle vehicle) {
+        // Re-walk one route: distance, load and lateness against the time windows
+        private void calculateRouteCost(int vehicleIndex) {
+            Vehicle vehicle = vehicles.get(vehicleIndex);
             List<Customer> route = vehicle.route;
             double distance = 0;
+            int load = 0;
+            int lateness = 0;
+            int currentTime = 0;
             Location previousLocation = vehicle.depot;
 
 
-            for (Customer customer : route) {
-                Location currentLocation = customer.location;
-                distance += distance(previousLocation, currentLocation);
-                previousLocation = currentLocation;
+            for (int i = 0; i < route.size(); i++) {
+                Customer customer = route.get(i);
+                int travelTime = distance(previousLocation, customer.location);
+                int arrivalTime = Math.max(currentTime + travelTime, customer.earliest_arrival_time);
+                lateness += Math.max(0, arrivalTime - customer.latest_arrival_time);
+                currentTime = arrivalTime + customer.serving_time;
+                distance += travelTime;
+                load += customer.demand;
+                previousLocation = customer.location;
             }
 
 
             distance += distance(previousLocation, vehicle.depot);
-            return distance;
+            totalDistance += distance - routeDistance[vehicleIndex];
+            totalLoad += load - routeLoad[vehicleIndex];
+            totalLateness += lateness - routeLateness[vehicleIndex];
+            routeDistance[vehicleIndex] = distance;
+            routeLoad[vehicleIndex] = load;
+            routeLateness[vehicleIndex] = lateness;
+            dirty[vehicleIndex] = false;
+        }
+    }
+
+
+    // Per-thread pool of solution shells handed out by generateNeighborhood and reclaimed each iteration
+    private class RouteArena {
+        final List<Solution> neighborhood = new ArrayList<>();
+        private final List<Solution> solutionShells = new ArrayList<>();
+        private int shellsInUse;
+
+
+        // Same result as template.clone(): a copy of the routes and their cached costs, without new allocations
+        Solution acquireSolution(Solution template) {
+            if (shellsInUse == solutionShells.size()) {
+                solutionShells.add(new Solution(new ArrayList<>()));
+            }
+            Solution shell = solutionShells.get(shellsInUse++);
+            shell.copyFrom(template);
+            return shell;
+        }
+
+
+        void reset() {
+            shellsInUse = 0;
+            neighborhood.clear();
         }
     }
 }
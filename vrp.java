@@ -50,7 +50,10 @@ class Vehicle {
 
 
     public boolean canAddCustomer(Customer customer) {
-        int totalDemand = route.stream().mapToInt(c -> c.demand).sum();
+        int totalDemand = 0;
+        for (int i = 0; i < route.size(); i++) {
+            totalDemand += route.get(i).demand;
+        }
         return totalDemand + customer.demand <= capacity;
     }
 
@@ -64,6 +67,7 @@ class Vehicle {
 public class VRPWithTimeWindows {
     private List<Customer> customers;
     private List<Vehicle> vehicles;
+    private final ThreadLocal<RouteArena> arena = ThreadLocal.withInitial(RouteArena::new);
 
 
     public VRPWithTimeWindows(List<Customer> customers, List<Vehicle> vehicles) {
@@ -82,22 +86,27 @@ public class VRPWithTimeWindows {
     }
     public void solve() {
         // Create initial solution using the greedy algorithm
-        Solution currentSolution = createInitialSolution();
+        Solution currentSolution = new Solution(createInitialSolution());
+        RouteArena routeArena = arena.get();
         // Initialize Tabu Search parameters
         int maxIterations = 100;
         int tabuListSize = 25;
-        List<Solution> tabuList = new ArrayList<>();
+        long[] tabuList = new long[tabuListSize];
+        int tabuCount = 0;
 
 
         // Perform Tabu Search iterations
         for (int iteration = 1; iteration <= maxIterations; iteration++) {
+            routeArena.reset();
             List<Solution> neighborhood = generateNeighborhood(currentSolution);
-            Solution bestNeighbor = findBestNeighbor(neighborhood, tabuList);
-            tabuList.add(bestNeighbor);
-            if (tabuList.size() > tabuListSize) {
-                tabuList.remove(0);
+            Solution bestNeighbor = findBestNeighbor(neighborhood, tabuList, Math.min(tabuCount, tabuListSize));
+            if (bestNeighbor == null) {
+                break;
             }
-            currentSolution = bestNeighbor;
+            tabuList[tabuCount % tabuListSize] = bestNeighbor.signature();
+            tabuCount++;
+            // Neighbours are arena shells, so copy the chosen one before the next reset
+            currentSolution.copyFrom(bestNeighbor);
         }
 
 
@@ -141,15 +150,16 @@ public class VRPWithTimeWindows {
     }
 
     private List<Solution> generateNeighborhood(Solution solution) {
-        List<Solution> neighborhood = new ArrayList<>();
+        RouteArena routeArena = arena.get();
+        List<Solution> neighborhood = routeArena.neighborhood;
 
         for (int i = 0; i < solution.vehicles.size(); i++) {
             for (int j = 0; j < solution.vehicles.get(i).route.size(); j++) {
                 for (int k = 0; k < solution.vehicles.size(); k++) {
                     if (i != k) {
-                        Solution neighbor = new Solution(solution);
-                        Customer customerToMove = neighbor.vehicles.get(i).route.get(j);
-                        if (neighbor.vehicles.get(k).canAddCustomer(customerToMove)) {
+                        Customer customerToMove = solution.vehicles.get(i).route.get(j);
+                        if (solution.vehicles.get(k).canAddCustomer(customerToMove)) {
+                            Solution neighbor = routeArena.acquireSolution(solution);
                             neighbor.vehicles.get(i).route.remove(j);
                             neighbor.vehicles.get(k).addCustomer(customerToMove);
                             neighborhood.add(neighbor);
@@ -163,13 +173,14 @@ public class VRPWithTimeWindows {
     }
 
 
-    private Solution findBestNeighbor(List<Solution> neighborhood, List<Solution> tabuList) {
+    private Solution findBestNeighbor(List<Solution> neighborhood, long[] tabuList, int tabuCount) {
         Solution bestNeighbor = null;
         int bestCost = Integer.MAX_VALUE;
 
-        for (Solution neighbor : neighborhood) {
+        for (int n = 0; n < neighborhood.size(); n++) {
+            Solution neighbor = neighborhood.get(n);
             int cost = neighbor.calculateCost();
-            if (cost < bestCost && !tabuList.contains(neighbor)) {
+            if (cost < bestCost && !isTabu(tabuList, tabuCount, neighbor.signature())) {
                 bestNeighbor = neighbor;
                 bestCost = cost;
             }
@@ -179,6 +190,16 @@ public class VRPWithTimeWindows {
     }
 
 
+    private boolean isTabu(long[] tabuList, int tabuCount, long signature) {
+        for (int i = 0; i < tabuCount; i++) {
+            if (tabuList[i] == signature) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
     private void printSolution(Solution solution) {
         double allTotalDistance = 0;
 
@@ -306,16 +327,74 @@ public class VRPWithTimeWindows {
             }
         }
 
+        // Overwrite this solution with the routes of another one, reusing the existing vehicles and route lists
+        public void copyFrom(Solution other) {
+            while (vehicles.size() > other.vehicles.size()) {
+                vehicles.remove(vehicles.size() - 1);
+            }
+            for (int v = 0; v < other.vehicles.size(); v++) {
+                Vehicle source = other.vehicles.get(v);
+                if (v == vehicles.size()) {
+                    vehicles.add(new Vehicle(source.capacity, source.depot));
+                }
+                Vehicle target = vehicles.get(v);
+                target.capacity = source.capacity;
+                target.depot = source.depot;
+                target.route.clear();
+                for (int i = 0; i < source.route.size(); i++) {
+                    target.route.add(source.route.get(i));
+                }
+            }
+        }
+
+        public long signature() {
+            long hash = 1125899906842597L;
+            for (int v = 0; v < vehicles.size(); v++) {
+                List<Customer> route = vehicles.get(v).route;
+                for (int i = 0; i < route.size(); i++) {
+                    hash = 31 * hash + route.get(i).id;
+                }
+                hash = 31 * hash - 1;
+            }
+            return hash;
+        }
+
+        // Route distance depot -> customers -> depot, the same measure as getTotalDistance in VRPWithTimeWindows.java
         public int calculateCost() {
         int cost = 0;
-        for (Vehicle vehicle : vehicles) {
-            cost += vehicle.route.stream()
-                    .mapToInt(c -> distance(c.location, vehicle.depot))
-                    .sum();
+        for (int v = 0; v < vehicles.size(); v++) {
+            Vehicle vehicle = vehicles.get(v);
+            Location previousLocation = vehicle.depot;
+            for (int i = 0; i < vehicle.route.size(); i++) {
+                cost += distance(previousLocation, vehicle.route.get(i).location);
+                previousLocation = vehicle.route.get(i).location;
+            }
+            cost += distance(previousLocation, vehicle.depot);
         }
         return cost;
     }
     }
+
+    // Per-thread pool of solution shells handed out by generateNeighborhood and reclaimed each iteration
+    private class RouteArena {
+        final List<Solution> neighborhood = new ArrayList<>();
+        private final List<Solution> solutionShells = new ArrayList<>();
+        private int shellsInUse;
+
+        Solution acquireSolution(Solution template) {
+            if (shellsInUse == solutionShells.size()) {
+                solutionShells.add(new Solution(new ArrayList<>()));
+            }
+            Solution shell = solutionShells.get(shellsInUse++);
+            shell.copyFrom(template);
+            return shell;
+        }
+
+        void reset() {
+            shellsInUse = 0;
+            neighborhood.clear();
+        }
+    }
 }
 
 